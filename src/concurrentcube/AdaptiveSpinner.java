@@ -0,0 +1,59 @@
+// author - Patryk Jędrzejczak
+
+// Adaptacyjne czekanie na pozwolenie semafora: najpierw ograniczone aktywne czekanie (Thread.onSpinWait()), potem
+// kilka oddań procesora (Thread.yield()), a dopiero potem zwykłe zaśnięcie na semaforze. Uśpienie i obudzenie wątku
+// kosztuje kilka mikrosekund, a obrót warstwy małej kostki trwa kilkadziesiąt nanosekund, więc przy krótkich
+// operacjach lepiej chwilę poczekać aktywnie.
+//
+// Aktywnie czekający wątek bierze pozwolenie tylko wtedy, gdy na semaforze nikt nie śpi. Semafory są sprawiedliwe,
+// a tryAcquire() je omija, więc bez tego strumień aktywnie czekających wątków mógłby bez końca wyprzedzać wątek
+// uśpiony w kolejce.
+//
+// Limit aktywnego czekania dostosowuje się do obserwowanych czasów trzymania: gdy pozwolenie przychodzi w trakcie
+// aktywnego czekania, limit rośnie (do MAX_SPINS), a gdy wątek i tak musi zasnąć, limit maleje (do MIN_SPINS). Przy
+// długich operacjach (duża kostka) wątki więc prawie od razu zasypiają i nie marnują procesora.
+
+package concurrentcube;
+
+import java.util.concurrent.Semaphore;
+
+final class AdaptiveSpinner {
+
+    private static final int MIN_SPINS = 16;
+    private static final int MAX_SPINS = 1 << 14;
+    private static final int YIELDS = 4;
+
+    // Aktualizacje mogą się gubić przy współbieżnych zmianach, ale to tylko heurystyka.
+    private volatile int spinLimit = MIN_SPINS * 4;
+
+    // Próbuje wziąć pozwolenie sem bez zasypiania. Zwraca false, jeśli się nie udało - wtedy wołający powinien
+    // zasnąć na semaforze. Nie reaguje na przerwania.
+    boolean tryAcquire(Semaphore sem) {
+        int limit = spinLimit;
+        for (int i = 0; i < limit; i++) {
+            if (tryAcquireUnqueued(sem)) {
+                if (limit < MAX_SPINS) {
+                    spinLimit = limit * 2;
+                }
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < YIELDS; i++) {
+            Thread.yield();
+            if (tryAcquireUnqueued(sem)) {
+                return true;
+            }
+        }
+        if (limit > MIN_SPINS) {
+            spinLimit = limit / 2;
+        }
+        return false;
+    }
+
+    // Bierze pozwolenie, jeśli jest dostępne i nikt nie czeka na nie w kolejce semafora.
+    private static boolean tryAcquireUnqueued(Semaphore sem) {
+        return !sem.hasQueuedThreads() && sem.tryAcquire();
+    }
+
+}
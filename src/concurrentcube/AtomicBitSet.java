@@ -0,0 +1,47 @@
+// author - Patryk Jędrzejczak
+
+// Zbiór bitów o stałym rozmiarze, przechowywany w tablicy AtomicLongArray (64 bity na słowo). Pojedyncze operacje są
+// atomowe, dzięki czemu zbiór może zastąpić tablicę AtomicBoolean, zajmując size / 64 słów zamiast size obiektów.
+
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class AtomicBitSet {
+
+    private final AtomicLongArray words;
+
+    AtomicBitSet(int size) {
+        words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    boolean get(int i) {
+        return (words.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    void set(int i) {
+        words.accumulateAndGet(i >>> 6, 1L << i, (word, mask) -> word | mask);
+    }
+
+    void clear(int i) {
+        words.accumulateAndGet(i >>> 6, ~(1L << i), (word, mask) -> word & mask);
+    }
+
+    // Zwraca najmniejszy ustawiony bit >= from lub -1, jeśli takiego nie ma.
+    int nextSetBit(int from) {
+        int wordIndex = from >>> 6;
+        if (from < 0 || wordIndex >= words.length()) {
+            return -1;
+        }
+
+        long word = words.get(wordIndex) & (-1L << from);
+        while (word == 0) {
+            if (++wordIndex == words.length()) {
+                return -1;
+            }
+            word = words.get(wordIndex);
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+}
@@ -0,0 +1,187 @@
+// author - Patryk Jędrzejczak
+
+// Asynchroniczne wywoływanie akcji afterRotation i afterShowing. Wątek, który skończył operację na kostce, tylko
+// wstawia zdarzenie do ograniczonego nieblokującego bufora cyklicznego (jak w CubeFeed) i od razu zwalnia warstwę.
+// Zdarzenia wywołuje po kolei jeden wątek dyspozytora.
+//
+// Gwarancje kolejności: zdarzenie jest wstawiane przed zwolnieniem warstwy (lub wyjściem z grupy show()), więc akcje
+// operacji, które się wzajemnie wykluczały (np. obroty tej samej warstwy), są wywoływane w kolejności wykonania tych
+// operacji. Akcje operacji współbieżnych są wywoływane w dowolnej kolejności. Akcje nigdy nie wykonują się
+// współbieżnie ze sobą, ale mogą wykonywać się współbieżnie z kolejnymi operacjami na kostce.
+//
+// Gdy bufor jest pełny, wątek kończący operację czeka na wolne miejsce (trzymając warstwę), więc wolna akcja
+// w końcu spowalnia kostkę, ale kolejka nie rośnie bez ograniczeń. Wyjątek rzucony przez akcję jest przekazywany
+// do UncaughtExceptionHandler wątku dyspozytora i nie przerywa wywoływania kolejnych akcji.
+//
+// Nikt nie czeka aktywnie. Bezczynny dyspozytor zasypia (LockSupport.park()), a budzi go wątek, który wstawił
+// zdarzenie do pustego bufora. Wątki czekające na wolne miejsce lub na wywołanie akcji (await()) czekają na
+// monitorze, a dyspozytor budzi je tylko wtedy, gdy ktoś czeka.
+
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+final class CallbackDispatcher implements AutoCloseable {
+
+    // numer ściany oznaczający zdarzenie afterShowing
+    private static final int SHOWING = -1;
+
+    private final IntRotationListener afterRotation;
+    private final Runnable afterShowing;
+    private final int mask;
+    // numery sekwencyjne slotów jak w CubeFeed
+    private final AtomicLongArray sequences;
+    private final int[] sides;
+    private final int[] layers;
+    // pozycja następnego zapisu
+    private final AtomicLong tail = new AtomicLong();
+    // liczba wywołanych zdarzeń, czyli pozycja następnego odczytu
+    private final AtomicLong done = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+    // true, jeśli dyspozytor zasypia przy pustym buforze i trzeba go obudzić
+    private volatile boolean idle;
+    // liczba wątków czekających na monitor (na wolne miejsce w buforze albo w await())
+    private final AtomicInteger blocked = new AtomicInteger();
+    private final Object monitor = new Object();
+
+    CallbackDispatcher(int capacity, IntRotationListener afterRotation, Runnable afterShowing) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two");
+        }
+        this.afterRotation = afterRotation;
+        this.afterShowing = afterShowing;
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        sides = new int[capacity];
+        layers = new int[capacity];
+
+        worker = new Thread(this::dispatch, "cube-callbacks");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void afterRotation(int side, int layer) {
+        publish(side, layer);
+    }
+
+    void afterShowing() {
+        publish(SHOWING, 0);
+    }
+
+    private void publish(int side, int layer) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long difference = sequences.get(index) - pos;
+            if (difference == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    sides[index] = side;
+                    layers[index] = layer;
+                    sequences.set(index, pos + 1);
+                    // Zapis sekwencji i odczyt idle są volatile, a dyspozytor robi to samo w odwrotnej kolejności,
+                    // więc albo on zobaczy zdarzenie, albo my zobaczymy, że zasypia.
+                    if (idle) {
+                        LockSupport.unpark(worker);
+                    }
+                    return;
+                }
+            }
+            else if (difference < 0) { // Bufor jest pełny.
+                long slot = pos;
+                awaitUninterruptibly(() -> sequences.get(index) - slot >= 0);
+            }
+            pos = tail.get();
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    // Czeka na monitorze, aż condition będzie spełniony. Dyspozytor sprawdza blocked po każdym zdarzeniu, a my
+    // sprawdzamy warunek po zwiększeniu blocked, więc nie przegapimy powiadomienia.
+    private void await(Condition condition) throws InterruptedException {
+        blocked.incrementAndGet();
+        try {
+            synchronized (monitor) {
+                while (!condition.holds()) {
+                    monitor.wait();
+                }
+            }
+        } finally {
+            blocked.decrementAndGet();
+        }
+    }
+
+    // Wątek kończący operację nie może przerwać czekania, bo zdarzenie musi trafić do bufora.
+    private void awaitUninterruptibly(Condition condition) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                await(condition);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        long head = done.get();
+        while (!closed || head < tail.get()) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                idle = true;
+                if (sequences.get(index) != head + 1 && !closed) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+
+            int side = sides[index];
+            int layer = layers[index];
+            sequences.set(index, head + mask + 1);
+            try {
+                if (side == SHOWING) {
+                    afterShowing.run();
+                }
+                else {
+                    afterRotation.accept(side, layer);
+                }
+            } catch (RuntimeException e) {
+                worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+            }
+            done.set(++head);
+            if (blocked.get() > 0) {
+                synchronized (monitor) {
+                    monitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Czeka, aż zostaną wywołane wszystkie akcje wstawione przed wywołaniem tej metody.
+    void await() throws InterruptedException {
+        long target = tail.get();
+        await(() -> done.get() >= target);
+    }
+
+    // Kończy wątek dyspozytora po wywołaniu wszystkich wstawionych akcji.
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+
+}
@@ -2,19 +2,58 @@
 
 package concurrentcube;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
+import java.util.function.LongUnaryOperator;
 
-public class Cube {
+public class Cube implements AutoCloseable {
+
+    // Kolejka wątków czekających na obrót jednej jednoznacznej warstwy.
+    private static class LayerQueue {
+
+        // liczba wątków czekających na obrót warstwy
+        private final AtomicInteger waiting = new AtomicInteger();
+        // semafor, na którym czekają te wątki
+        private final Semaphore sem = new Semaphore(0, true);
+
+    }
 
     private final int size;
-    private final BiConsumer<Integer, Integer> beforeRotation;
-    private final BiConsumer<Integer, Integer> afterRotation;
+    // numer kostki wyznaczający globalną kolejność rezerwacji w transakcjach
+    private final long id = nextId.getAndIncrement();
+    private final IntRotationListener beforeRotation;
+    private final IntRotationListener afterRotation;
     private final Runnable beforeShowing;
     private final Runnable afterShowing;
-    private final CubeSide top, left, front, right, back, bottom;
+    // dyspozytor asynchronicznych akcji "after", null, jeśli akcje są wywoływane w miejscu
+    private final CallbackDispatcher dispatcher;
+    // nagrywanie wywołań, null, jeśli wyłączone
+    private final WorkloadRecorder recorder;
+    // statystyki czasów obrotów i pokazań, null, jeśli wyłączone
+    private final LatencyStats rotationLatency;
+    private final LatencyStats showLatency;
+    private final CubeState state;
+    // skrót stanu, null, jeśli kostka go nie liczy
+    private final CubeHasher hasher;
+    // pamięć podręczna pokazanych stanów, null, jeśli kostka jej nie używa
+    private final ShowCache showCache;
+    // historia obrotów, null, jeśli kostka jej nie pamięta
+    private final CubeHistory history;
+    // Przy włączonej historii lub transakcjach na wielu grupach operacje grupy show() czytające stan biorą blokadę do
+    // odczytu, a cofanie historii i transakcje na wyłączność (które zmieniają stan) blokadę do zapisu. null, jeśli
+    // nie jest potrzebna.
+    private final ReentrantReadWriteLock exclusiveLock;
 
     // Używam tylko zmiennych Atomic, żeby zapewnić prawidłową widoczność zmiennych.
 
@@ -22,20 +61,29 @@ public class Cube {
     private final AtomicInteger workingNum;
     // numer aktualnie pracującej grupy
     private final AtomicInteger workingGroup;
-    // workingLayer[s][i] == true, gdy i-ta warstwa potrząc od ściany s < 3 jest rotowana
-    private final AtomicBoolean[][] workingLayer;
+    // workingLayers[s] - zbiór warstw patrząc od ściany s < 3, które są aktualnie rotowane
+    private final AtomicBitSet[] workingLayers;
     // liczba wątków czekających na rotację lub pokazanie stanu
     private final AtomicInteger waitingNum;
     // liczba wątków z danej grupy czekających na wykonanie operacji
     private final AtomicInteger[] waitingFromGroup;
-    // waitingFromLayer[s][i] - liczba wątków czekających na obrót i-tej warstwy patrząc od ściany s < 3
-    private final AtomicInteger[][] waitingFromLayer;
+    // waitingLayers[s] - zbiór warstw patrząc od ściany s < 3, na których obrót czeka choć jeden wątek
+    private final AtomicBitSet[] waitingLayers;
 
     private final Semaphore mutex;
+    // klasy priorytetów (Builder.priority()), priorityWeight == 0 oznacza kolejność cykliczną
+    private final boolean showsFirst;
+    private final int priorityWeight;
+    // ile razy z rzędu wpuszczono klasę uprzywilejowaną, gdy czekała druga klasa; chronione mutex'em
+    private int priorityStreak;
     // semafor, na którym czekają wątki oczekujące na pokazenie stanu kostki
     private final Semaphore showSem;
-    // layerSem[s][i] - semafor, na którym czekają wątki oczekujące na obrót i-tej warstwy patrząc od ściany s < 3
-    private final Semaphore[][] layerSem;
+    // adaptacyjne czekanie na kaskadowe wpuszczenie, null, jeśli wątki od razu zasypiają
+    private final AdaptiveSpinner turnSpinner;
+    // Kolejki wątków oczekujących na obrót warstw. Kolejka dla i-tej warstwy patrząc od ściany s < 3 jest pod
+    // kluczem s * size + i i jest tworzona dopiero wtedy, gdy jakiś wątek musi na tę warstwę poczekać. Dzięki temu
+    // konstrukcja kostki nie alokuje obiektów synchronizacyjnych dla każdej warstwy.
+    private final ConcurrentHashMap<Long, LayerQueue> layerQueues;
     // Mamy cztery grupy wątków:
     //  0 - rotujące warstwy względem ścian 0 i 5
     //  1 - rotujące warstwy względem ścian 1 i 3
@@ -46,116 +94,362 @@ public class Cube {
     private static final int GROUPS = 4;
     private static final int SHOW_GROUP = 3;
 
+    // liczba wykonanych obrotów, czyli numer wersji stanu kostki
+    private final AtomicLong version;
+    // liczba rozpoczętych obrotów (tylko z pamięcią podręczną); równa version, gdy nikt nie zmienia stanu
+    private final AtomicLong startedRotations;
+    // aktualne subskrypcje obrotów
+    private final AtomicReference<CubeFeed[]> feeds;
+
+    // akcja, która nic nie robi
+    private static final Runnable NO_ACTION = () -> {};
+    // kolejny numer kostki
+    private static final AtomicLong nextId = new AtomicLong();
+    // czas oczekiwania w protokołach wstępnych oznaczający czekanie bez ograniczenia
+    private static final long NO_TIMEOUT = -1;
+
+    // Budowniczy kostki z opcjonalnymi ustawieniami. Akcje, które nie zostaną podane, nic nie robią.
+    public static class Builder {
+
+        private final int size;
+        private IntRotationListener beforeRotation = IntRotationListener.NOOP;
+        private IntRotationListener afterRotation = IntRotationListener.NOOP;
+        private Runnable beforeShowing = NO_ACTION;
+        private Runnable afterShowing = NO_ACTION;
+        // maksymalna liczba obrotów przechowywanych bez tablic kolorów, 0 oznacza zwykły stan
+        private int sparseMoves;
+        // czy stan jest trzymany poza stertą i ewentualny plik, w którym jest trzymany
+        private boolean offHeap;
+        private Path offHeapFile;
+        // czy kostka liczy skrót stanu i czy także odcisk kanoniczny
+        private boolean stateHashing;
+        private boolean canonicalFingerprint;
+        // budżet pamięci podręcznej pokazanych stanów w znakach, 0 oznacza brak pamięci podręcznej
+        private long showCacheChars;
+        // liczba obrotów w historii i odstęp między punktami kontrolnymi, 0 oznacza brak historii
+        private int historyCapacity;
+        private int checkpointInterval;
+        // pojemność kolejki asynchronicznych akcji "after", 0 oznacza wywoływanie akcji w miejscu
+        private int asyncCallbacks;
+        private boolean adaptiveSpinning;
+        private WorkloadRecorder recorder;
+        // czy pierwszeństwo mają pokazania (a nie obroty), gdy priorityWeight > 0
+        private boolean showsFirst;
+        // ile razy z rzędu klasa uprzywilejowana może zostać wpuszczona przed czekającą drugą klasą, 0 - brak klas
+        private int priorityWeight;
+        private boolean latencyMetrics;
+        private boolean exclusiveTransactions;
+
+        public Builder(int size) {
+            this.size = size;
+        }
+
+        // Akcje obrotów przyjmują argumenty typu int, więc nie wymagają opakowywania.
+        public Builder beforeRotation(IntRotationListener beforeRotation) {
+            this.beforeRotation = beforeRotation;
+            return this;
+        }
+
+        public Builder afterRotation(IntRotationListener afterRotation) {
+            this.afterRotation = afterRotation;
+            return this;
+        }
+
+        public Builder beforeShowing(Runnable beforeShowing) {
+            this.beforeShowing = beforeShowing;
+            return this;
+        }
+
+        public Builder afterShowing(Runnable afterShowing) {
+            this.afterShowing = afterShowing;
+            return this;
+        }
+
+        // Stan przechowywany jako lista obrotów (SparseCubeState), zamieniany na zwykły po maxMoves obrotach.
+        // Przydatne dla bardzo dużych kostek, na których wykonuje się niewiele obrotów.
+        public Builder sparseState(int maxMoves) {
+            if (maxMoves <= 0) {
+                throw new IllegalArgumentException("maxMoves must be positive");
+            }
+            this.sparseMoves = maxMoves;
+            return this;
+        }
+
+        // Stan trzymany poza stertą w pamięci bezpośredniej (OffHeapCubeState). Kostkę trzeba zamknąć przez close().
+        public Builder offHeapState() {
+            this.offHeap = true;
+            this.offHeapFile = null;
+            return this;
+        }
+
+        // Stan trzymany poza stertą w pliku file odwzorowanym w pamięci. Plik jest nadpisywany kostką ułożoną.
+        public Builder offHeapState(Path file) {
+            this.offHeap = true;
+            this.offHeapFile = file;
+            return this;
+        }
+
+        // Kostka aktualizuje przy każdym obrocie skrót stanu (stateHash()). Obrót kosztuje wtedy dodatkowo odczyt
+        // kolorów przesuwanych kwadratów.
+        public Builder stateHashing() {
+            this.stateHashing = true;
+            return this;
+        }
+
+        // Kostka aktualizuje skrót stanu i odcisk kanoniczny (canonicalFingerprint()), co jest około 24 razy droższe
+        // niż sam skrót.
+        public Builder canonicalFingerprint() {
+            this.stateHashing = true;
+            this.canonicalFingerprint = true;
+            return this;
+        }
+
+        // show() i snapshot() zapamiętują pokazane stany (łącznie najwyżej maxChars znaków). Jeśli od ostatniego
+        // pokazania nie było obrotu, zwracają zapamiętany stan w czasie O(1), bez protokołu i bez wywołania
+        // beforeShowing i afterShowing.
+        public Builder showCache(long maxChars) {
+            if (maxChars <= 0) {
+                throw new IllegalArgumentException("maxChars must be positive");
+            }
+            this.showCacheChars = maxChars;
+            return this;
+        }
+
+        // Kostka pamięta ostatnie capacity obrotów (po 3 bajty) i stany co najmniej co checkpointInterval wersji,
+        // co pozwala odtwarzać i przywracać wcześniejsze stany (stateAt(), revertTo(), undo(), redo()).
+        public Builder history(int capacity, int checkpointInterval) {
+            if (capacity <= 0 || checkpointInterval <= 0) {
+                throw new IllegalArgumentException("capacity and checkpointInterval must be positive");
+            }
+            if (size > CubeHistory.MAX_SIZE) {
+                throw new IllegalArgumentException("history is limited to cubes of size " + CubeHistory.MAX_SIZE);
+            }
+            this.historyCapacity = capacity;
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        // Akcje afterRotation i afterShowing są wywoływane asynchronicznie przez osobny wątek (CallbackDispatcher),
+        // a operacja zwalnia warstwę zaraz po zmianie lub odczytaniu stanu. capacity (potęga dwójki) to największa
+        // liczba oczekujących akcji; przy pełnej kolejce operacja czeka na wolne miejsce.
+        public Builder asyncCallbacks(int capacity) {
+            if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("capacity must be a positive power of two");
+            }
+            this.asyncCallbacks = capacity;
+            return this;
+        }
+
+        // Wątki czekające na kaskadowe wpuszczenie najpierw czekają aktywnie, a dopiero potem zasypiają
+        // (AdaptiveSpinner). Przyspiesza to krótkie operacje na małych kostkach kosztem czasu procesora. Na mutex
+        // wątki czekają jak zwykle, w kolejce.
+        public Builder adaptiveSpinning() {
+            this.adaptiveSpinning = true;
+            return this;
+        }
+
+        // Klasy priorytetów operacji: po zakończeniu pracy grupy spośród czekających grup wpuszczana jest najpierw
+        // grupa pokazująca (showsFirst) albo grupy obracające, zamiast kolejnej grupy w kolejności cyklicznej.
+        // Pracujące wątki nie są wywłaszczane. Gdy czeka też druga klasa, klasa uprzywilejowana może zostać
+        // wpuszczona najwyżej weight razy z rzędu, a potem wpuszczana jest druga klasa, więc ta nie zagłodzi się.
+        public Builder priority(boolean showsFirst, int weight) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("weight must be positive");
+            }
+            this.showsFirst = showsFirst;
+            this.priorityWeight = weight;
+            return this;
+        }
+
+        // Zbiera statystyki czasów trwania obrotów i pokazań (razem z czekaniem na wpuszczenie), dostępne przez
+        // rotationLatency() i showLatency().
+        public Builder latencyMetrics() {
+            this.latencyMetrics = true;
+            return this;
+        }
+
+        // Pozwala transakcjom (CubeTransaction) obracać na tej kostce warstwy więcej niż jednej grupy. Taka transakcja
+        // wymaga wyłączności względem wszystkich operacji, więc operacje grupy show() biorą dodatkowo blokadę
+        // do odczytu.
+        public Builder exclusiveTransactions() {
+            this.exclusiveTransactions = true;
+            return this;
+        }
+
+        // Nagrywa wywołania rotate() i show() do recorder (WorkloadRecorder).
+        public Builder recordWorkload(WorkloadRecorder recorder) {
+            if (recorder.getSize() != size) {
+                throw new IllegalArgumentException("recorder is created for cubes of size " + recorder.getSize());
+            }
+            this.recorder = recorder;
+            return this;
+        }
+
+        // Rzuca UncheckedIOException, jeśli nie udało się utworzyć pliku ze stanem.
+        public Cube build() {
+            if (offHeap && sparseMoves > 0) {
+                throw new IllegalStateException("sparse state cannot be kept off heap");
+            }
+            return new Cube(this);
+        }
+
+    }
+
+    // Akcje obrotów typu BiConsumer są opakowywane w IntRotationListener, więc argumenty są opakowywane przy każdym
+    // obrocie. Builder przyjmuje IntRotationListener bezpośrednio.
     public Cube(int size,
                 BiConsumer<Integer, Integer> beforeRotation,
                 BiConsumer<Integer, Integer> afterRotation,
                 Runnable beforeShowing,
                 Runnable afterShowing) {
-        this.size = size;
-        this.beforeRotation = beforeRotation;
-        this.afterRotation = afterRotation;
-        this.beforeShowing = beforeShowing;
-        this.afterShowing = afterShowing;
-
-        top = new CubeSide(size, 0);
-        left = new CubeSide(size, 1);
-        front = new CubeSide(size, 2);
-        right = new CubeSide(size, 3);
-        back = new CubeSide(size, 4);
-        bottom = new CubeSide(size, 5);
+        this(new Builder(size)
+                .beforeRotation(beforeRotation::accept)
+                .afterRotation(afterRotation::accept)
+                .beforeShowing(beforeShowing)
+                .afterShowing(afterShowing));
+    }
+
+    private Cube(Builder builder) {
+        size = builder.size;
+        beforeRotation = builder.beforeRotation;
+        afterRotation = builder.afterRotation;
+        beforeShowing = builder.beforeShowing;
+        afterShowing = builder.afterShowing;
+        recorder = builder.recorder;
+        rotationLatency = builder.latencyMetrics ? new LatencyStats() : null;
+        showLatency = builder.latencyMetrics ? new LatencyStats() : null;
+        showsFirst = builder.showsFirst;
+        priorityWeight = builder.priorityWeight;
+        // Bez akcji "after" nie ma czego wywoływać, więc nie tworzymy wątku dyspozytora.
+        dispatcher = builder.asyncCallbacks > 0 &&
+                (afterRotation != IntRotationListener.NOOP || afterShowing != NO_ACTION)
+                ? new CallbackDispatcher(builder.asyncCallbacks, afterRotation, afterShowing)
+                : null;
+
+        state = createState(builder);
+        if (builder.stateHashing) {
+            hasher = new CubeHasher(size, builder.canonicalFingerprint);
+            hasher.reset(state);
+        }
+        else {
+            hasher = null;
+        }
 
         workingNum = new AtomicInteger();
         workingGroup = new AtomicInteger();
-        workingLayer = new AtomicBoolean[GROUPS][size];
         waitingNum = new AtomicInteger();
         waitingFromGroup = new AtomicInteger[GROUPS];
-        waitingFromLayer = new AtomicInteger[GROUPS][size];
         for (int group = 0; group < GROUPS; group++) {
             waitingFromGroup[group] = new AtomicInteger();
-            for (int layer = 0; layer < size; layer++) {
-                workingLayer[group][layer] = new AtomicBoolean();
-                waitingFromLayer[group][layer] = new AtomicInteger();
-            }
+        }
+        workingLayers = new AtomicBitSet[GROUPS - 1];
+        waitingLayers = new AtomicBitSet[GROUPS - 1];
+        for (int group = 0; group < GROUPS - 1; group++) {
+            workingLayers[group] = new AtomicBitSet(size);
+            waitingLayers[group] = new AtomicBitSet(size);
         }
         mutex = new Semaphore(1, true);
         showSem = new Semaphore(0, true);
-        layerSem = new Semaphore[GROUPS - 1][size];
-        for (int group = 0; group < GROUPS - 1; group++) {
-            for (int layer = 0; layer < size; layer++) {
-                layerSem[group][layer] = new Semaphore(0, true);
-            }
-        }
-    }
-
-    // Operacja obrócenia "brzegów" warstwy.
-    private void rotateLayer(int side, int layer) {
-        AtomicInteger[] copyOfFirstFragment;
-
-        switch (side) {
-            case 0:
-                copyOfFirstFragment = left.getRow(layer);
-                left.setRow(layer, front.getRow(layer));
-                front.setRow(layer, right.getRow(layer));
-                right.setRow(layer, back.getRow(layer));
-                back.setRow(layer, copyOfFirstFragment);
-                break;
-            case 1:
-                copyOfFirstFragment = top.getColumn(layer);
-                top.setColumn(layer, back.getReversedColumn(size - layer - 1));
-                back.setColumn(size - layer - 1, bottom.getReversedColumn(layer));
-                bottom.setColumn(layer, front.getColumn(layer));
-                front.setColumn(layer, copyOfFirstFragment);
-                break;
-            case 2:
-                copyOfFirstFragment = top.getRow(size - layer - 1);
-                top.setRow(size - layer - 1, left.getReversedColumn(size - layer - 1));
-                left.setColumn(size - layer - 1, bottom.getRow(layer));
-                bottom.setRow(layer, right.getReversedColumn(layer));
-                right.setColumn(layer, copyOfFirstFragment);
-                break;
-            case 3:
-                copyOfFirstFragment = top.getReversedColumn(size - layer - 1);
-                top.setColumn(size - layer - 1, front.getColumn(size - layer - 1));
-                front.setColumn(size - layer - 1, bottom.getColumn(size - layer - 1));
-                bottom.setColumn(size - layer - 1, back.getReversedColumn(layer));
-                back.setColumn(layer, copyOfFirstFragment);
-                break;
-            case 4:
-                copyOfFirstFragment = top.getReversedRow(layer);
-                top.setRow(layer, right.getColumn(size - layer - 1));
-                right.setColumn(size - layer - 1, bottom.getReversedRow(size - layer - 1));
-                bottom.setRow(size - layer - 1, left.getColumn(layer));
-                left.setColumn(layer, copyOfFirstFragment);
-                break;
-            case 5:
-                copyOfFirstFragment = left.getRow(size - layer - 1);
-                left.setRow(size - layer - 1, back.getRow(size - layer - 1));
-                back.setRow(size - layer - 1, right.getRow(size - layer - 1));
-                right.setRow(size - layer - 1, front.getRow(size - layer - 1));
-                front.setRow(size - layer - 1, copyOfFirstFragment);
-                break;
-        }
-    }
-
-    // Operacja obrócenia całej ściany, gdy layer == 0 lub layer == size - 1.
-    private void rotateSide(int side, int layer) {
-        if (layer == 0) {
-            if (side == 0) top.rotateClockwise();
-            else if (side == 1) left.rotateClockwise();
-            else if (side == 2) front.rotateClockwise();
-            else if (side == 3) right.rotateClockwise();
-            else if (side == 4) back.rotateClockwise();
-            else if (side == 5) bottom.rotateClockwise();
-        }
-
-        if (layer == size - 1) {
-            if (side == 0) bottom.rotateCounterClockwise();
-            else if (side == 1) right.rotateCounterClockwise();
-            else if (side == 2) back.rotateCounterClockwise();
-            else if (side == 3) left.rotateCounterClockwise();
-            else if (side == 4) front.rotateCounterClockwise();
-            else if (side == 5) top.rotateCounterClockwise();
+        turnSpinner = builder.adaptiveSpinning ? new AdaptiveSpinner() : null;
+        layerQueues = new ConcurrentHashMap<>();
+        version = new AtomicLong();
+        startedRotations = new AtomicLong();
+        showCache = builder.showCacheChars > 0 ? new ShowCache(builder.showCacheChars) : null;
+        if (builder.historyCapacity > 0) {
+            history = new CubeHistory(builder.historyCapacity, builder.checkpointInterval);
+            history.reset(0, state.describe());
+        }
+        else {
+            history = null;
+        }
+        exclusiveLock = history != null || builder.exclusiveTransactions ? new ReentrantReadWriteLock() : null;
+        feeds = new AtomicReference<>(new CubeFeed[0]);
+    }
+
+    // Statystyki czasów trwania obrotów (rotate() i udanych tryRotate()) od wywołania do zakończenia. Wymaga
+    // Builder.latencyMetrics().
+    public LatencyStats rotationLatency() {
+        if (rotationLatency == null) {
+            throw new IllegalStateException("latency metrics are not enabled");
+        }
+        return rotationLatency;
+    }
+
+    // Statystyki czasów trwania show() i snapshot() (razem z udanymi tryShow()). Wymaga Builder.latencyMetrics().
+    public LatencyStats showLatency() {
+        if (showLatency == null) {
+            throw new IllegalStateException("latency metrics are not enabled");
+        }
+        return showLatency;
+    }
+
+    // Skrót stanu kostki w stylu Zobrista, aktualizowany przy każdym obrocie (koszt O(1)). Gdy nikt nie rotuje
+    // kostki, równe stany mają równe skróty, a różne stany mają różne skróty z dużym prawdopodobieństwem. W trakcie
+    // obrotów skrót uwzględnia obroty, które się zakończyły, i być może część trwających. Wymaga
+    // Builder.stateHashing().
+    public long stateHash() {
+        if (hasher == null) {
+            throw new IllegalStateException("state hashing is not enabled");
         }
+        return hasher.hash();
+    }
+
+    // Odcisk stanu, który jest taki sam dla stanów symetrycznych względem obrotu całej kostki (z przenumerowaniem
+    // kolorów tak, żeby kostka ułożona przechodziła na ułożoną). Koszt O(1), zasady jak w stateHash(). Wymaga
+    // Builder.canonicalFingerprint().
+    public long canonicalFingerprint() {
+        if (hasher == null || !hasher.isCanonical()) {
+            throw new IllegalStateException("canonical fingerprint is not enabled");
+        }
+        return hasher.canonicalFingerprint();
+    }
+
+    private static CubeState createState(Builder builder) {
+        if (builder.sparseMoves > 0) {
+            return new SparseCubeState(builder.size, builder.sparseMoves);
+        }
+        if (builder.offHeap) {
+            try {
+                return OffHeapCubeState.create(builder.size, builder.offHeapFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new DenseCubeState(builder.size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Numer wersji stanu kostki, czyli liczba wykonanych obrotów.
+    public long getVersion() {
+        return version.get();
+    }
+
+    // Zakłada subskrypcję obrotów z buforem na capacity zdarzeń (potęga dwójki). Każdy obrót wykonany po zakończeniu
+    // tej metody zostanie opublikowany do subskrypcji.
+    public CubeFeed subscribe(int capacity, CubeFeed.Overflow overflow) {
+        CubeFeed feed = new CubeFeed(this, capacity, overflow);
+        feeds.updateAndGet(current -> {
+            CubeFeed[] result = Arrays.copyOf(current, current.length + 1);
+            result[current.length] = feed;
+            return result;
+        });
+        return feed;
+    }
+
+    void unsubscribe(CubeFeed feed) {
+        feeds.updateAndGet(current -> {
+            CubeFeed[] result = new CubeFeed[current.length];
+            int length = 0;
+            for (CubeFeed other : current) {
+                if (other != feed) {
+                    result[length++] = other;
+                }
+            }
+            return Arrays.copyOf(result, length);
+        });
     }
 
     private int getGroupOfRotation(int side) {
@@ -164,74 +458,178 @@ public class Cube {
         else return 2;
     }
 
+    // Kolejka dla warstwy, tworzona przy pierwszym użyciu. Wywoływane tylko pod ochroną mutex'a.
+    private LayerQueue getLayerQueue(int group, int dualLayer) {
+        return layerQueues.computeIfAbsent((long) group * size + dualLayer, key -> new LayerQueue());
+    }
+
     // Fragment kodu dopuszczający kolejną grupę wątków do pracy. Faktycznie wpuszczany jest jeden wątek, a reszta
     // grupy jest wpuszczana później kaskadowo. Jest to wydzielony fragment kodu z funkcji rotate() i show().
     // Lepiej go teraz nie analizować.
     private void releaseNextGroup(int group) {
-        boolean threadReleased = false;
+        Semaphore next = null; // semafor wątku, któremu przekażemy mutex
 
-        if (workingNum.get() == 0) { // Możemy kogoś wpuścić.
-            int nextGroup = (group + 1) % GROUPS; // Zaczynamy od kolejnej grupy.
-            for (int i = 0; i <= GROUPS; i++) { // A kończymy na naszej.
-                if (nextGroup == SHOW_GROUP && waitingFromGroup[SHOW_GROUP].get() > 0) { // Wpuszczamy grupę pokazującą.
-                    showSem.release();
-                    threadReleased = true;
+        if (workingNum.get() == 0 && waitingNum.get() > 0) { // Możemy i mamy kogo wpuścić.
+            if (priorityWeight > 0) { // Najpierw wybieramy klasę priorytetu.
+                boolean preferredWaiting = isClassWaiting(true);
+                boolean otherWaiting = isClassWaiting(false);
+                boolean preferred = preferredWaiting && (!otherWaiting || priorityStreak < priorityWeight);
+                next = firstWaiting(group, preferred);
+                // Licznik zmieniamy przed przekazaniem mutex'a, bo wpuszczony wątek może od razu z niego korzystać.
+                if (next != null) {
+                    priorityStreak = preferred && otherWaiting ? priorityStreak + 1 : 0;
                 }
-                else { // Wpuszczamy grupę rotującą (być może tę samą).
-                    for (int firstLayer = 0; firstLayer < size; firstLayer++) {
-                        if (waitingFromLayer[nextGroup][firstLayer].get() > 0) {
-                            layerSem[nextGroup][firstLayer].release();
-                            threadReleased = true;
-                            break;
-                        }
-                    }
-                }
-                if (threadReleased) {
-                    break;
-                }
-                nextGroup = (nextGroup + 1) % GROUPS;
+            }
+            if (next == null) {
+                next = firstWaiting(group, null);
             }
         }
 
-        if (!threadReleased) { // Nikogo nie wpuściliśmy.
+        if (next != null) {
+            next.release();
+        }
+        else { // Nikogo nie wpuściliśmy.
             mutex.release();
         }
     }
 
+    private boolean isPreferred(int group) {
+        return (group == SHOW_GROUP) == showsFirst;
+    }
+
+    // Czy czeka choć jeden wątek z klasy uprzywilejowanej (preferred) albo drugiej klasy.
+    private boolean isClassWaiting(boolean preferred) {
+        for (int group = 0; group < GROUPS; group++) {
+            if (isPreferred(group) == preferred && waitingFromGroup[group].get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Semafor pierwszej czekającej grupy (z klasy preferred, albo dowolnej, jeśli preferred == null), zaczynając od
+    // grupy następnej po group, a kończąc na group. Zwraca null, jeśli nikt nie czeka.
+    private Semaphore firstWaiting(int group, Boolean preferred) {
+        int nextGroup = (group + 1) % GROUPS; // Zaczynamy od kolejnej grupy.
+        for (int i = 0; i <= GROUPS; i++) { // A kończymy na naszej.
+            if (preferred == null || isPreferred(nextGroup) == preferred) {
+                if (nextGroup == SHOW_GROUP && waitingFromGroup[SHOW_GROUP].get() > 0) { // Wpuszczamy grupę pokazującą.
+                    return showSem;
+                }
+                else if (nextGroup != SHOW_GROUP && waitingFromGroup[nextGroup].get() > 0) {
+                    // Wpuszczamy grupę rotującą (być może tę samą). Warstwy przeglądamy tylko, gdy ktoś z grupy czeka.
+                    int firstLayer = waitingLayers[nextGroup].nextSetBit(0);
+                    if (firstLayer >= 0) {
+                        return getLayerQueue(nextGroup, firstLayer).sem;
+                    }
+                }
+            }
+            nextGroup = (nextGroup + 1) % GROUPS;
+        }
+        return null;
+    }
+
     // Funkcja dopuszczająca wątek rotujący kolejną wartwę z grupy. Zwraca false, jeśli nie ma kogo wpuścić.
     private boolean releaseNextLayer(int group, int dualLayer) {
         boolean releasedNext = false;
-        for (int otherLayer = dualLayer + 1; otherLayer < size; otherLayer++) {
-            if (waitingFromLayer[group][otherLayer].get() > 0) {
-                releasedNext = true;
-                layerSem[group][otherLayer].release();
-                break;
-            }
+        if (waitingFromGroup[group].get() == 0) { // Nikt z grupy nie czeka, więc nie przeglądamy warstw.
+            return false;
+        }
+        int otherLayer = waitingLayers[group].nextSetBit(dualLayer + 1);
+        // Warstwy zajęte przez rezerwację wielu warstw (enterLayers()) pomijamy - czekający na nie wątek zostanie
+        // wpuszczony, gdy grupa skończy pracę. Bez takich rezerwacji czekające warstwy nigdy nie są zajęte.
+        while (otherLayer >= 0 && workingLayers[group].get(otherLayer)) {
+            otherLayer = waitingLayers[group].nextSetBit(otherLayer + 1);
+        }
+        if (otherLayer >= 0) {
+            releasedNext = true;
+            getLayerQueue(group, otherLayer).sem.release();
         }
         return releasedNext;
     }
 
-    public void rotate(int side, int layer) throws InterruptedException {
-        int group = getGroupOfRotation(side);
-        int dualLayer = side < 3 ? layer : size - layer - 1; // jednoznaczna warstwa dla przeciwnych ścian
+    // Czeka najwyżej timeoutNanos nanosekund (NO_TIMEOUT - bez ograniczenia) na pozwolenie semafora sem, na którym
+    // wątek jest zarejestrowany jako czekający. Zwraca true, jeśli wątek dostał pozwolenie, a z nim mutex (kaskadowe
+    // wpuszczanie). Po upływie czasu lub przerwaniu czekania zwraca false, gdy uda się wziąć mutex - wtedy nikt nie
+    // przekazuje mutex'a przez sem, więc wątek może się bezpiecznie wyrejestrować. Przerwanie jest zapamiętywane we
+    // fladze wątku, więc wątek wpuszczony po przerwaniu obsługuje je tak jak w czekaniu bez ograniczenia.
+    private boolean awaitTurn(Semaphore sem, long timeoutNanos) {
+        if (timeoutNanos == NO_TIMEOUT) {
+            if (turnSpinner == null || !turnSpinner.tryAcquire(sem)) {
+                sem.acquireUninterruptibly(); // Wątek może zostać przerwany. Później to obsłużymy.
+            }
+            return true;
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                if (remaining > 0 ? sem.tryAcquire(remaining, TimeUnit.NANOSECONDS) : sem.tryAcquire()) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                deadline = System.nanoTime(); // Przestajemy czekać.
+                continue;
+            }
+            if (mutex.tryAcquire()) {
+                return false;
+            }
+            Thread.yield(); // Ktoś trzyma mutex, być może właśnie przekazuje go nam.
+        }
+    }
+
+    // Protokół wstępny operacji na jednoznacznej warstwie dualLayer grupy group < 3. Po jego przejściu pracują tylko
+    // wątki z tej samej grupy, a żaden inny wątek nie pracuje na tej warstwie.
+    private void enterLayer(int group, int dualLayer) throws InterruptedException {
+        enterLayer(group, dualLayer, NO_TIMEOUT);
+    }
+
+    // Jak wyżej, ale czeka najwyżej timeoutNanos nanosekund (0 - tylko wejście bez czekania). Zwraca false, jeśli
+    // wątek nie został wpuszczony w tym czasie; wtedy nie zostawia po sobie śladu w protokole.
+    private boolean enterLayer(int group, int dualLayer, long timeoutNanos) throws InterruptedException {
         Thread thread = Thread.currentThread();
         boolean shouldReleaseNext = true; // true, jeśli wątek powinien wpuścić nastęnego
 
-        mutex.acquire();
+        if (timeoutNanos == NO_TIMEOUT) {
+            mutex.acquire();
+        }
+        else if (!mutex.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
 
         // Poniżej true, jeśli wątek musi poczekać.
         if (workingNum.get() > 0 && (workingGroup.get() != group || waitingNum.get() - waitingFromGroup[group].get() > 0
-                                                                 || workingLayer[group][dualLayer].get())) {
+                                                                 || workingLayers[group].get(dualLayer))) {
+            if (timeoutNanos == 0) { // Nie możemy wejść od razu.
+                mutex.release();
+                return false;
+            }
+
+            LayerQueue queue = getLayerQueue(group, dualLayer);
             waitingNum.incrementAndGet();
             waitingFromGroup[group].incrementAndGet();
-            waitingFromLayer[group][dualLayer].incrementAndGet();
+            if (queue.waiting.incrementAndGet() == 1) {
+                waitingLayers[group].set(dualLayer);
+            }
 
             mutex.release();
-            layerSem[group][dualLayer].acquireUninterruptibly();
+            boolean admitted = awaitTurn(queue.sem, timeoutNanos);
 
             waitingNum.decrementAndGet();
             waitingFromGroup[group].decrementAndGet();
-            waitingFromLayer[group][dualLayer].decrementAndGet();
+            if (queue.waiting.decrementAndGet() == 0) {
+                waitingLayers[group].clear(dualLayer);
+            }
+
+            if (!admitted) { // Minął czas. Nikt nie przekazał nam mutex'a, więc ktoś pracuje i to on wpuści kolejnych.
+                mutex.release();
+                if (thread.isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                return false;
+            }
 
             if (thread.isInterrupted()) { // Obsługa wątków przerwanych w protokole wstępnym.
                 if (!releaseNextLayer(group, dualLayer - 1)) { // Kontynuujemy kaskadowe wpuszczanie.
@@ -248,7 +646,7 @@ public class Cube {
 
         // Wątek przeszedł protokół wstępny. Od tego momemntu, jeśli zostanie przerwany, wykonujemu funkcję do końca.
         workingGroup.set(group);
-        workingLayer[group][dualLayer].set(true);
+        workingLayers[group].set(dualLayer);
         workingNum.incrementAndGet();
 
         // Kaskodowe wpuszczanie kolejnych wątków z pracującej grupy z dziedziczeniem mutex'a. Ostatecznie dla każdej
@@ -256,15 +654,16 @@ public class Cube {
         if (!shouldReleaseNext || !releaseNextLayer(group, dualLayer)) {
             mutex.release();
         }
+        return true;
+    }
 
-        beforeRotation.accept(side, layer);
-        rotateLayer(side, layer);
-        rotateSide(side, layer);
-        afterRotation.accept(side, layer);
+    // Protokół końcowy operacji na warstwie.
+    private void exitLayer(int group, int dualLayer) throws InterruptedException {
+        Thread thread = Thread.currentThread();
 
         mutex.acquireUninterruptibly();
         workingNum.decrementAndGet();
-        workingLayer[group][dualLayer].set(false);
+        workingLayers[group].clear(dualLayer);
         releaseNextGroup(group); // Wpuszczenie kolejnej grupy wątków. Z sukcesem zrobi to tylko ostatni kończący pracę.
 
         if (thread.isInterrupted()) { // Wątek został przerwany po protokole wstępnym.
@@ -273,23 +672,629 @@ public class Cube {
         }
     }
 
-    public String show() throws InterruptedException {
+    // Protokół wstępny rezerwacji wszystkich warstw dualLayers (rosnąco) grupy group < 3 naraz, dla transakcji
+    // (CubeTransaction). Rezerwacja czeka w kolejce najmniejszej warstwy i liczy się jak jeden pracujący wątek. Jeśli
+    // po wpuszczeniu któraś z pozostałych warstw jest zajęta przez inną rezerwację, wątek przekazuje kaskadę dalej
+    // i czeka na kolejne wpuszczenie. Nie czeka na poszczególne warstwy po kolei, więc nie może się zakleszczyć
+    // z wątkami swojej grupy.
+    void enterLayers(int group, int[] dualLayers) throws InterruptedException {
         Thread thread = Thread.currentThread();
+        int firstLayer = dualLayers[0];
+        boolean shouldReleaseNext = true; // true, jeśli wątek powinien wpuścić nastęnego
 
         mutex.acquire();
 
+        // Poniżej true, jeśli wątek musi poczekać.
+        if (workingNum.get() > 0 && (workingGroup.get() != group || waitingNum.get() - waitingFromGroup[group].get() > 0
+                                                                 || isAnyWorking(group, dualLayers))) {
+            LayerQueue queue = getLayerQueue(group, firstLayer);
+            waitingNum.incrementAndGet();
+            waitingFromGroup[group].incrementAndGet();
+            if (queue.waiting.incrementAndGet() == 1) {
+                waitingLayers[group].set(firstLayer);
+            }
+
+            mutex.release();
+            while (true) {
+                awaitTurn(queue.sem, NO_TIMEOUT);
+                if (thread.isInterrupted() || !isAnyWorking(group, dualLayers)) {
+                    break;
+                }
+                // Zostajemy w kolejce, a kaskadę kontynuujemy tak, jakby nas nie było.
+                if (!releaseNextLayer(group, firstLayer)) {
+                    mutex.release(); // Ktoś pracuje, więc to on wpuści kolejną grupę.
+                }
+            }
+
+            waitingNum.decrementAndGet();
+            waitingFromGroup[group].decrementAndGet();
+            if (queue.waiting.decrementAndGet() == 0) {
+                waitingLayers[group].clear(firstLayer);
+            }
+
+            if (thread.isInterrupted()) { // Obsługa wątków przerwanych w protokole wstępnym.
+                if (!releaseNextLayer(group, firstLayer - 1)) { // Kontynuujemy kaskadowe wpuszczanie.
+                    releaseNextGroup(group); // Jeśli nie mamy kogo wpuścić, być może trzeba wpuścić nową grupę.
+                }
+
+                thread.interrupt();
+                throw new InterruptedException();
+            }
+        }
+        else if (workingNum.get() > 0) { // Tylko wątki, które weszły bez czekania i nie jako pierwsze, nie wpuszczają.
+            shouldReleaseNext = false;
+        }
+
+        workingGroup.set(group);
+        for (int dualLayer : dualLayers) {
+            workingLayers[group].set(dualLayer);
+        }
+        workingNum.incrementAndGet();
+
+        // Kaskada pomija warstwy zajęte przez tę rezerwację.
+        if (!shouldReleaseNext || !releaseNextLayer(group, firstLayer)) {
+            mutex.release();
+        }
+    }
+
+    // Protokół końcowy rezerwacji warstw.
+    void exitLayers(int group, int[] dualLayers) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+
+        mutex.acquireUninterruptibly();
+        workingNum.decrementAndGet();
+        for (int dualLayer : dualLayers) {
+            workingLayers[group].clear(dualLayer);
+        }
+        releaseNextGroup(group);
+
+        if (thread.isInterrupted()) { // Wątek został przerwany po protokole wstępnym.
+            thread.interrupt();
+            throw new InterruptedException();
+        }
+    }
+
+    private boolean isAnyWorking(int group, int[] dualLayers) {
+        for (int dualLayer : dualLayers) {
+            if (workingLayers[group].get(dualLayer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Wyłączność względem wszystkich operacji na kostce, dla transakcji obracających warstwy więcej niż jednej grupy.
+    // Wymaga Builder.exclusiveTransactions().
+    void enterExclusive() throws InterruptedException {
+        if (exclusiveLock == null) {
+            throw new IllegalStateException("exclusive transactions are not enabled");
+        }
+        enterShowGroup();
+        exclusiveLock.writeLock().lock();
+    }
+
+    void exitExclusive() throws InterruptedException {
+        exclusiveLock.writeLock().unlock();
+        exitShowGroup();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    public void rotate(int side, int layer) throws InterruptedException {
+        rotate(side, layer, NO_TIMEOUT);
+    }
+
+    // Wykonuje obrót tylko, jeśli może zacząć go od razu. Zwraca false, jeśli obrót nie został wykonany.
+    public boolean tryRotate(int side, int layer) throws InterruptedException {
+        return rotate(side, layer, 0);
+    }
+
+    // Wykonuje obrót, jeśli może zacząć go w ciągu timeout. Zwraca false, jeśli obrót nie został wykonany. Wątek,
+    // który zrezygnował z czekania, nie wstrzymuje innych wątków.
+    public boolean tryRotate(int side, int layer, long timeout, TimeUnit unit) throws InterruptedException {
+        return rotate(side, layer, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    private boolean rotate(int side, int layer, long timeoutNanos) throws InterruptedException {
+        if (recorder != null) {
+            recorder.rotation(side, layer);
+        }
+        long begin = rotationLatency != null ? System.nanoTime() : 0;
+        int group = getGroupOfRotation(side);
+        int dualLayer = side < 3 ? layer : size - layer - 1; // jednoznaczna warstwa dla przeciwnych ścian
+
+        if (!enterLayer(group, dualLayer, timeoutNanos)) {
+            return false;
+        }
+        // Protokół końcowy wykonujemy także po wyjątku (akcji albo zamkniętego stanu), bo inaczej pozostałe wątki
+        // czekałyby na tę warstwę bez końca.
+        try {
+            applyRotation(side, layer);
+        } finally {
+            exitLayer(group, dualLayer);
+        }
+
+        if (rotationLatency != null) {
+            rotationLatency.record(System.nanoTime() - begin);
+        }
+        return true;
+    }
+
+    // Obrót wykonywany przez wątek, który ma wyłączność na jego warstwę (po protokole wstępnym lub w transakcji).
+    void applyRotation(int side, int layer) {
+        if (beforeRotation != IntRotationListener.NOOP) {
+            beforeRotation.accept(side, layer);
+        }
+        if (hasher != null) {
+            hasher.beforeRotation(state, side, layer);
+        }
+        if (showCache != null) {
+            startedRotations.incrementAndGet();
+        }
+        state.rotate(side, layer);
+        long rotationVersion = version.incrementAndGet();
+        if (history != null) {
+            history.record(rotationVersion, side, layer);
+        }
+        for (CubeFeed feed : feeds.get()) { // Publikujemy przed zwolnieniem warstwy.
+            feed.publish(side, layer, rotationVersion);
+        }
+        if (afterRotation != IntRotationListener.NOOP) {
+            if (dispatcher != null) {
+                dispatcher.afterRotation(side, layer);
+            }
+            else {
+                afterRotation.accept(side, layer);
+            }
+        }
+    }
+
+    // Odczyty pojedynczych kwadratów, wierszy i kolumn. Kwadraty wiersza ściany przesuwa w grupie 0 tylko jedna
+    // warstwa, a kwadraty kolumny w grupie 1 tylko jedna warstwa (CubeGeometry). Odczyt zajmuje więc tę warstwę tak
+    // jak obrót, więc może wykonywać się współbieżnie z obrotami pozostałych warstw tej grupy. Odczyty nie wywołują
+    // akcji beforeShowing i afterShowing.
+
+    public int colorAt(int face, int row, int column) throws InterruptedException {
+        checkSticker(face, row, column);
+        int dualLayer = CubeGeometry.rowLayer(size, face, row);
+
+        enterLayer(0, dualLayer);
+        try {
+            return state.colorAt(face, row, column);
+        } finally {
+            exitLayer(0, dualLayer);
+        }
+    }
+
+    // Zapisuje kolory wiersza row ściany face do destination[0..size-1].
+    public void readRow(int face, int row, byte[] destination) throws InterruptedException {
+        checkSticker(face, row, 0);
+        checkDestination(destination);
+        int dualLayer = CubeGeometry.rowLayer(size, face, row);
+
+        enterLayer(0, dualLayer);
+        try {
+            for (int column = 0; column < size; column++) {
+                destination[column] = (byte) state.colorAt(face, row, column);
+            }
+        } finally {
+            exitLayer(0, dualLayer);
+        }
+    }
+
+    // Zapisuje kolory kolumny column ściany face, od góry do dołu, do destination[0..size-1].
+    public void readColumn(int face, int column, byte[] destination) throws InterruptedException {
+        checkSticker(face, 0, column);
+        checkDestination(destination);
+        int dualLayer = CubeGeometry.columnLayer(size, face, column);
+
+        enterLayer(1, dualLayer);
+        try {
+            for (int row = 0; row < size; row++) {
+                destination[row] = (byte) state.colorAt(face, row, column);
+            }
+        } finally {
+            exitLayer(1, dualLayer);
+        }
+    }
+
+    // Odwiedza wszystkie kwadraty w kolejności show(). Wymaga wyłączności względem wszystkich obrotów, tak jak show(),
+    // ale nie buduje napisu.
+    public void forEachSticker(StickerVisitor visitor) throws InterruptedException {
+        enterShow();
+        try {
+            for (int face = 0; face < 6; face++) {
+                for (int row = 0; row < size; row++) {
+                    for (int column = 0; column < size; column++) {
+                        visitor.visit(face, row, column, state.colorAt(face, row, column));
+                    }
+                }
+            }
+        } finally {
+            exitShow();
+        }
+    }
+
+    // Częściowe widoki stanu w formacie show(). Kwadraty jednej ściany przesuwają tylko obroty całej tej ściany oraz
+    // obroty warstw z pozostałych grup, więc widok fragmentu jednej ściany zajmuje tylko zewnętrzną warstwę grupy
+    // tej ściany i może wykonywać się współbieżnie z obrotami wewnętrznych warstw tej grupy. Widoki nie wywołują
+    // akcji beforeShowing i afterShowing.
+
+    // Opis ścian, których numery są ustawionymi bitami maski (bit f - ściana f), w kolejności rosnących numerów.
+    // Widok więcej niż jednej ściany wymaga wyłączności względem wszystkich obrotów, tak jak show().
+    public String showFaces(int faceMask) throws InterruptedException {
+        if (faceMask <= 0 || faceMask >= 1 << 6) {
+            throw new IllegalArgumentException("invalid face mask " + faceMask);
+        }
+
+        StringBuilder description = new StringBuilder(Integer.bitCount(faceMask) * size * size);
+        if (Integer.bitCount(faceMask) == 1) {
+            int face = Integer.numberOfTrailingZeros(faceMask);
+            describeRegion(face, 0, 0, size, size, description);
+        }
+        else {
+            enterShow();
+            try {
+                for (int face = 0; face < 6; face++) {
+                    if ((faceMask & (1 << face)) != 0) {
+                        appendRegion(face, 0, 0, size, size, description);
+                    }
+                }
+            } finally {
+                exitShow();
+            }
+        }
+        return description.toString();
+    }
+
+    // Opis prostokąta rows x columns ściany face o lewym górnym rogu (firstRow, firstColumn), wierszami.
+    public String showRegion(int face, int firstRow, int firstColumn, int rows, int columns)
+            throws InterruptedException {
+        checkSticker(face, firstRow, firstColumn);
+        if (rows <= 0 || columns <= 0 || firstRow + rows > size || firstColumn + columns > size) {
+            throw new IllegalArgumentException("region outside of the face");
+        }
+
+        StringBuilder description = new StringBuilder(rows * columns);
+        describeRegion(face, firstRow, firstColumn, rows, columns, description);
+        return description.toString();
+    }
+
+    private void describeRegion(int face, int firstRow, int firstColumn, int rows, int columns,
+                                StringBuilder description) throws InterruptedException {
+        int group = getGroupOfRotation(face);
+        int dualLayer = CubeGeometry.faceLayer(size, face);
+
+        enterLayer(group, dualLayer);
+        try {
+            appendRegion(face, firstRow, firstColumn, rows, columns, description);
+        } finally {
+            exitLayer(group, dualLayer);
+        }
+    }
+
+    private void appendRegion(int face, int firstRow, int firstColumn, int rows, int columns,
+                              StringBuilder description) {
+        for (int row = firstRow; row < firstRow + rows; row++) {
+            for (int column = firstColumn; column < firstColumn + columns; column++) {
+                description.append(state.colorAt(face, row, column));
+            }
+        }
+    }
+
+    private void checkSticker(int face, int row, int column) {
+        if (face < 0 || face > 5 || row < 0 || row >= size || column < 0 || column >= size) {
+            throw new IllegalArgumentException("no sticker (" + face + ", " + row + ", " + column + ")");
+        }
+    }
+
+    private void checkDestination(byte[] destination) {
+        if (destination.length < size) {
+            throw new IllegalArgumentException("destination shorter than cube size");
+        }
+    }
+
+    public String show() throws InterruptedException {
+        return snapshot().getState();
+    }
+
+    // Działa jak show(), ale zwraca null, jeśli nie może zacząć od razu.
+    public String tryShow() throws InterruptedException {
+        CubeSnapshot snapshot = snapshot(0);
+        return snapshot == null ? null : snapshot.getState();
+    }
+
+    // Działa jak show(), ale zwraca null, jeśli nie może zacząć w ciągu timeout.
+    public String tryShow(long timeout, TimeUnit unit) throws InterruptedException {
+        CubeSnapshot snapshot = snapshot(Math.max(0, unit.toNanos(timeout)));
+        return snapshot == null ? null : snapshot.getState();
+    }
+
+    // Działa jak show(), ale zwraca też numer wersji pokazanego stanu.
+    public CubeSnapshot snapshot() throws InterruptedException {
+        return snapshot(NO_TIMEOUT);
+    }
+
+    private CubeSnapshot snapshot(long timeoutNanos) throws InterruptedException {
+        if (recorder != null) {
+            recorder.show();
+        }
+        if (showLatency == null) {
+            return takeSnapshot(timeoutNanos);
+        }
+
+        long begin = System.nanoTime();
+        CubeSnapshot snapshot = takeSnapshot(timeoutNanos);
+        if (snapshot != null) {
+            showLatency.record(System.nanoTime() - begin);
+        }
+        return snapshot;
+    }
+
+    private CubeSnapshot takeSnapshot(long timeoutNanos) throws InterruptedException {
+        if (showCache != null) {
+            long epoch = showCache.epoch();
+            CubeSnapshot cached = showCache.latest();
+            // Jeśli po odczytaniu version liczba rozpoczętych obrotów jest taka sama, to w tej chwili nikt nie
+            // zmieniał stanu, a stan odpowiadał wersji zapamiętanego stanu. Cofnięcie historii zmienia epokę przed
+            // zmianą wersji, więc niezmieniona epoka oznacza, że ta wersja nie pochodzi z innej gałęzi historii.
+            if (cached != null && version.get() == cached.getVersion() &&
+                    startedRotations.get() == cached.getVersion() && showCache.epoch() == epoch) {
+                return cached;
+            }
+        }
+
+        if (!enterShow(timeoutNanos)) {
+            return null;
+        }
+
+        try {
+            beforeShowing.run();
+            String description = state.describe();
+            long describedVersion = version.get(); // Nikt nie rotuje, więc wersja odpowiada opisowi.
+            if (dispatcher != null) {
+                if (afterShowing != NO_ACTION) {
+                    dispatcher.afterShowing();
+                }
+            }
+            else {
+                afterShowing.run();
+            }
+
+            CubeSnapshot snapshot = new CubeSnapshot(description, describedVersion);
+            // Zapamiętujemy przed wyjściem, żeby cofnięcie historii nie mogło się wykonać pomiędzy.
+            if (showCache != null) {
+                showCache.put(snapshot);
+            }
+            if (history != null) {
+                history.checkpoint(describedVersion, description, describedVersion);
+            }
+            return snapshot;
+        } finally {
+            exitShow();
+        }
+    }
+
+    // Zapamiętany stan kostki o wersji version albo null, jeśli nie ma go w pamięci podręcznej (Builder.showCache()).
+    public CubeSnapshot cachedSnapshot(long version) {
+        return showCache == null ? null : showCache.get(version);
+    }
+
+    // Historia obrotów (Builder.history()). Wersje z okna historii to wersje od aktualnej (albo ostatniej, do której
+    // można wykonać redo) pomniejszonej o pojemność historii do aktualnej (albo tej ostatniej). Cofnięcie historii
+    // ustawia wersję kostki na docelową i oznacza subskrypcje jako przepełnione, bo zdarzenia nie opisują cofnięcia.
+    // Nowy obrót po cofnięciu historii uniemożliwia redo. Operacje wymagają wyłączności względem obrotów, tak jak
+    // show(), ale nie wywołują akcji beforeShowing i afterShowing.
+
+    // Stan kostki o wersji version z okna historii.
+    public CubeSnapshot stateAt(long version) throws InterruptedException {
+        requireHistory();
+        enterShow();
+
+        boolean inHistory;
+        String description = null;
+        try {
+            long current = this.version.get();
+            inHistory = isInHistory(version, current);
+            if (inHistory) {
+                DenseCubeState result = new DenseCubeState(size);
+                Map.Entry<Long, String> checkpoint = history.nearestCheckpoint(version, current);
+                if (checkpoint != null && Math.abs(checkpoint.getKey() - version) < Math.abs(current - version)) {
+                    result.restore(checkpoint.getValue());
+                    replay(result, checkpoint.getKey(), version, false);
+                }
+                else {
+                    String currentDescription = state.describe();
+                    history.checkpoint(current, currentDescription, current);
+                    result.restore(currentDescription);
+                    replay(result, current, version, false);
+                }
+                description = result.describe();
+            }
+        } finally {
+            exitShow();
+        }
+
+        if (!inHistory) {
+            throw new IllegalArgumentException("version " + version + " is not in history");
+        }
+        return new CubeSnapshot(description, version);
+    }
+
+    // Przywraca stan o wersji version z okna historii. Zwraca nową wersję kostki.
+    public long revertTo(long version) throws InterruptedException {
+        return travel(current -> version);
+    }
+
+    // Cofa ostatnie count obrotów. Zwraca nową wersję kostki.
+    public long undo(int count) throws InterruptedException {
+        return travel(current -> current - count);
+    }
+
+    // Ponownie wykonuje count obrotów cofniętych przez undo() lub revertTo(). Zwraca nową wersję kostki.
+    public long redo(int count) throws InterruptedException {
+        return travel(current -> current + count);
+    }
+
+    private void requireHistory() {
+        if (history == null) {
+            throw new IllegalStateException("history is not enabled");
+        }
+    }
+
+    private boolean isInHistory(long version, long current) {
+        return version >= history.oldest(current) && version <= history.top(current);
+    }
+
+    // Wykonuje na target obroty z historii prowadzące od wersji from do wersji to (do tyłu - obroty odwrotne).
+    // Dla stanu kostki (live) aktualizuje też skrót stanu.
+    private void replay(CubeState target, long from, long to, boolean live) {
+        for (long v = from + 1; v <= to; v++) {
+            rotateState(target, history.side(v), history.layer(v), live);
+        }
+        for (long v = from; v > to; v--) {
+            rotateState(target, CubeGeometry.opposite(history.side(v)), size - history.layer(v) - 1, live);
+        }
+    }
+
+    private void rotateState(CubeState target, int side, int layer, boolean live) {
+        if (live && hasher != null) {
+            hasher.beforeRotation(target, side, layer);
+        }
+        target.rotate(side, layer);
+    }
+
+    private long travel(LongUnaryOperator targetOf) throws InterruptedException {
+        requireHistory();
+        enterShowGroup();
+        exclusiveLock.writeLock().lock();
+
+        long target;
+        boolean inHistory;
+        try {
+            long current = version.get();
+            target = targetOf.applyAsLong(current);
+            inHistory = isInHistory(target, current);
+            if (inHistory && target != current) {
+                // Zapamiętane stany unieważniamy przed zmianą wersji (takeSnapshot()).
+                if (showCache != null) {
+                    showCache.clear();
+                }
+                Map.Entry<Long, String> checkpoint = history.nearestCheckpoint(target, current);
+                if (checkpoint != null && Math.abs(checkpoint.getKey() - target) < Math.abs(current - target)) {
+                    state.restore(checkpoint.getValue());
+                    if (hasher != null) {
+                        hasher.reset(state);
+                    }
+                    replay(state, checkpoint.getKey(), target, true);
+                }
+                else {
+                    replay(state, current, target, true);
+                }
+
+                history.travelled(current, target);
+                version.set(target);
+                startedRotations.set(target);
+                for (CubeFeed feed : feeds.get()) {
+                    feed.invalidate();
+                }
+            }
+        } finally {
+            exclusiveLock.writeLock().unlock();
+            exitShowGroup();
+        }
+
+        if (!inHistory) {
+            throw new IllegalArgumentException("version " + target + " is not in history");
+        }
+        return target;
+    }
+
+    // Protokół wstępny operacji czytającej stan, wymagającej wyłączności względem wszystkich obrotów.
+    private void enterShow() throws InterruptedException {
+        enterShow(NO_TIMEOUT);
+    }
+
+    // Jak wyżej, ale czeka najwyżej timeoutNanos nanosekund. Zwraca false, jeśli wątek nie został wpuszczony.
+    private boolean enterShow(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (!enterShowGroup(timeoutNanos)) {
+            return false;
+        }
+        if (exclusiveLock != null) {
+            if (timeoutNanos == NO_TIMEOUT) {
+                exclusiveLock.readLock().lock();
+            }
+            else {
+                boolean locked;
+                try {
+                    locked = exclusiveLock.readLock().tryLock(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // exitShowGroup() rzuci InterruptedException.
+                    locked = false;
+                }
+                if (!locked) { // Czas minął w trakcie cofania historii lub transakcji na wyłączność.
+                    exitShowGroup();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Protokół końcowy operacji czytającej stan, wymagającej wyłączności względem wszystkich obrotów.
+    private void exitShow() throws InterruptedException {
+        if (exclusiveLock != null) {
+            exclusiveLock.readLock().unlock();
+        }
+        exitShowGroup();
+    }
+
+    // Protokół wstępny operacji wymagającej wyłączności względem wszystkich obrotów.
+    private void enterShowGroup() throws InterruptedException {
+        enterShowGroup(NO_TIMEOUT);
+    }
+
+    // Jak wyżej, ale czeka najwyżej timeoutNanos nanosekund (0 - tylko wejście bez czekania). Zwraca false, jeśli
+    // wątek nie został wpuszczony w tym czasie.
+    private boolean enterShowGroup(long timeoutNanos) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+
+        if (timeoutNanos == NO_TIMEOUT) {
+            mutex.acquire();
+        }
+        else if (!mutex.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+
         // Poniżej true, jeśli wątek musi poczekać.
         if (workingNum.get() > 0 && (workingGroup.get() != SHOW_GROUP ||
                                      waitingNum.get() - waitingFromGroup[SHOW_GROUP].get() > 0)) {
+            if (timeoutNanos == 0) { // Nie możemy wejść od razu.
+                mutex.release();
+                return false;
+            }
+
             waitingNum.incrementAndGet();
             waitingFromGroup[SHOW_GROUP].incrementAndGet();
 
             mutex.release();
-            showSem.acquireUninterruptibly(); // Wątek może zostać przerwany. Później to obsłużymy.
+            boolean admitted = awaitTurn(showSem, timeoutNanos);
 
             waitingNum.decrementAndGet();
             waitingFromGroup[SHOW_GROUP].decrementAndGet();
 
+            if (!admitted) { // Minął czas. Nikt nie przekazał nam mutex'a, więc ktoś pracuje i to on wpuści kolejnych.
+                mutex.release();
+                if (thread.isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                return false;
+            }
+
             if (thread.isInterrupted()) { // Obsługa wątków przerwanych w protokole wstępnym.
                 if (waitingFromGroup[SHOW_GROUP].get() > 0) { // Kontynuujemy kaskadowe wpuszczanie.
                     showSem.release();
@@ -314,11 +1319,12 @@ public class Cube {
         else {
             mutex.release();
         }
+        return true;
+    }
 
-        beforeShowing.run();
-        String description = top.toString() + left.toString() + front.toString() +
-                right.toString() + back.toString() + bottom.toString();
-        afterShowing.run();
+    // Protokół końcowy operacji wymagającej wyłączności względem wszystkich obrotów.
+    private void exitShowGroup() throws InterruptedException {
+        Thread thread = Thread.currentThread();
 
         mutex.acquireUninterruptibly();
         workingNum.decrementAndGet();
@@ -328,8 +1334,45 @@ public class Cube {
             thread.interrupt();
             throw new InterruptedException();
         }
+    }
+
+    // Ustawia stan kostki na zapisany w snapshot. Wywoływane tylko przed udostępnieniem kostki innym wątkom.
+    void restore(CubeSnapshot snapshot) {
+        String description = snapshot.getState();
+        if (description.length() != 6L * size * size) {
+            throw new IllegalArgumentException("state does not match cube size");
+        }
+        state.restore(description);
+        if (hasher != null) {
+            hasher.reset(state);
+        }
+        version.set(snapshot.getVersion());
+        startedRotations.set(snapshot.getVersion());
+        if (showCache != null) {
+            showCache.clear();
+        }
+        if (history != null) {
+            history.reset(snapshot.getVersion(), description);
+        }
+    }
+
+    // Zwalnia zasoby stanu kostki (pamięć poza stertą, plik) i kończy wątek asynchronicznych akcji po wywołaniu
+    // oczekujących akcji. Nie może być wywołane współbieżnie z innymi operacjami
+    // na kostce. Po zamknięciu kostki trzymanej poza stertą jej operacje rzucają IllegalStateException.
+    @Override
+    public void close() {
+        state.close();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
 
-        return description;
+    // Czeka, aż zostaną wywołane wszystkie asynchroniczne akcje operacji zakończonych przed wywołaniem tej metody
+    // (Builder.asyncCallbacks()). Bez asynchronicznych akcji kończy się od razu.
+    public void awaitCallbacks() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.await();
+        }
     }
 
 }
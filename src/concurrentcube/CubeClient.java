@@ -0,0 +1,118 @@
+// author - Patryk Jędrzejczak
+
+// Klient serwera kostki (CubeServer). Obroty są wysyłane potokowo: rotate() tylko dopisuje żądanie do bufora, a
+// potwierdzenia są odbierane zbiorczo w sync() i show(). Klient nie jest bezpieczny dla wielu wątków - każdy wątek
+// powinien mieć własne połączenie.
+
+package concurrentcube;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+public class CubeClient implements AutoCloseable {
+
+    // Serwer potwierdza osobną ramką ACK każdy odczyt z gniazda, więc w najgorszym razie (każdy obrót odczytany
+    // osobno) na jeden niepotwierdzony obrót przypada HEADER_LENGTH bajtów potwierdzeń. Klient nie czyta potwierdzeń,
+    // dopóki wysyła. Gdyby potwierdzenia nie mieściły się w jego buforze odbiorczym, serwer zablokowałby się na
+    // zapisie ACK i przestał czytać, a klient - na wysyłaniu obrotów. Dlatego po maxPending niepotwierdzonych
+    // obrotach klient czeka na potwierdzenia, a maxPending jest dobrane tak, żeby potwierdzenia zajmowały najwyżej
+    // połowę bufora odbiorczego (jądro liczy w nim też narzut), ale nie więcej niż MAX_PENDING.
+    private static final int MAX_PENDING = 1 << 16;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(CubeServer.BUFFER_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocate(CubeServer.BUFFER_SIZE);
+    private final int maxPending;
+    // liczba obrotów wysłanych (lub czekających w buforze), ale jeszcze niepotwierdzonych
+    private long pending;
+
+    public CubeClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        int receiveBuffer = channel.socket().getReceiveBufferSize();
+        maxPending = Math.max(1, Math.min(MAX_PENDING, receiveBuffer / 2 / CubeServer.HEADER_LENGTH));
+        in.flip(); // Bufor wejściowy jest zawsze gotowy do czytania.
+    }
+
+    public void rotate(int side, int layer) throws IOException {
+        if (out.remaining() < CubeServer.ROTATE_LENGTH) {
+            flush();
+        }
+        out.put(CubeServer.ROTATE).put((byte) side).putInt(layer);
+        if (++pending >= maxPending) {
+            sync();
+        }
+    }
+
+    // Wysyła zbuforowane żądania i czeka na potwierdzenie wszystkich obrotów.
+    public void sync() throws IOException {
+        flush();
+        while (pending > 0) {
+            readAck();
+        }
+    }
+
+    public String show() throws IOException {
+        if (!out.hasRemaining()) {
+            flush();
+        }
+        out.put(CubeServer.SHOW);
+        sync(); // Serwer potwierdza obroty wysłane przed show() przed przesłaniem stanu.
+
+        fill(CubeServer.HEADER_LENGTH);
+        if (in.get() != CubeServer.SNAPSHOT) {
+            throw new IOException("unexpected frame");
+        }
+        int length = in.getInt();
+
+        StringBuilder result = new StringBuilder(length);
+        while (result.length() < length) {
+            fill(1);
+            while (in.hasRemaining() && result.length() < length) {
+                result.append((char) ('0' + in.get()));
+            }
+        }
+        return result.toString();
+    }
+
+    public long getPending() {
+        return pending;
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        CubeServer.writeFully(channel, out);
+        out.clear();
+    }
+
+    private void readAck() throws IOException {
+        fill(CubeServer.HEADER_LENGTH);
+        if (in.get() != CubeServer.ACK) {
+            throw new IOException("unexpected frame");
+        }
+        pending -= in.getInt();
+    }
+
+    // Doczytuje dane, dopóki w buforze nie ma co najmniej bytes bajtów.
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("connection closed by server");
+            }
+        }
+        in.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
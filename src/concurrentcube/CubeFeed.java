@@ -0,0 +1,196 @@
+// author - Patryk Jędrzejczak
+
+// Subskrypcja obrotów kostki. Kostka publikuje każdy wykonany obrót do ograniczonego bufora cyklicznego, z którego
+// zdarzenia odbiera jeden wątek konsumenta. Bufor jest nieblokujący (algorytm z numerami sekwencyjnymi slotów), więc
+// wiele wątków rotujących współbieżnie może publikować bez wzajemnego wykluczania.
+//
+// Obroty są publikowane przed opuszczeniem warstwy, więc obroty, które nie mogły wykonywać się współbieżnie, trafiają
+// do bufora w kolejności wykonania. Obroty współbieżne (różne warstwy tej samej grupy) mogą trafić do bufora w innej
+// kolejności niż ich numery, ale są przemienne, więc zastosowanie zdarzeń w kolejności odbioru daje poprawny stan.
+//
+// Nikt nie czeka aktywnie. Konsument czekający w take() zasypia (LockSupport.park()), a budzi go wątek, który wstawił
+// zdarzenie. Wątki rotujące czekające na wolne miejsce (Overflow.BLOCK) czekają na monitorze, a konsument budzi je
+// po odebraniu zdarzenia tylko wtedy, gdy ktoś czeka.
+
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class CubeFeed implements AutoCloseable {
+
+    // Zachowanie kostki, gdy bufor subskrypcji jest pełny.
+    public enum Overflow {
+        // Wątek rotujący czeka na wolne miejsce (trzymając swoją warstwę), czyli wolny konsument spowalnia kostkę.
+        BLOCK,
+        // Zdarzenie jest gubione, a subskrypcja zostaje oznaczona jako przepełniona. Konsument powinien wtedy
+        // odtworzyć stan z show() i założyć nową subskrypcję.
+        DROP
+    }
+
+    private final Cube cube;
+    private final Overflow overflow;
+    private final int mask;
+    // sequences[i] - numer sekwencyjny slotu i: pos, gdy slot jest wolny dla zapisu na pozycji pos, pos + 1, gdy
+    // zapis na pozycji pos jest zakończony
+    private final AtomicLongArray sequences;
+    private final int[] sides;
+    private final int[] layers;
+    private final long[] versions;
+    // pozycja następnego zapisu
+    private final AtomicLong tail = new AtomicLong();
+    // pozycja następnego odczytu, używana tylko przez konsumenta
+    private long head;
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // konsument uśpiony w take() albo null
+    private volatile Thread sleepingConsumer;
+    // liczba wątków rotujących czekających na monitorze na wolne miejsce
+    private final AtomicInteger blocked = new AtomicInteger();
+    private final Object monitor = new Object();
+
+    CubeFeed(Cube cube, int capacity, Overflow overflow) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two");
+        }
+        this.cube = cube;
+        this.overflow = overflow;
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        sides = new int[capacity];
+        layers = new int[capacity];
+        versions = new long[capacity];
+    }
+
+    // Wywoływane przez wątek rotujący przed zwolnieniem warstwy.
+    void publish(int side, int layer, long version) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long difference = sequences.get(index) - pos;
+            if (difference == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    sides[index] = side;
+                    layers[index] = layer;
+                    versions[index] = version;
+                    sequences.set(index, pos + 1);
+                    // Zapis sekwencji i odczyt sleepingConsumer są volatile, a take() robi to samo w odwrotnej
+                    // kolejności, więc albo konsument zobaczy zdarzenie, albo my zobaczymy, że zasypia.
+                    Thread consumer = sleepingConsumer;
+                    if (consumer != null) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return;
+                }
+                pos = tail.get();
+            }
+            else if (difference < 0) { // Bufor jest pełny.
+                if (overflow == Overflow.DROP || closed.get()) {
+                    overflowed.set(true);
+                    return;
+                }
+                awaitSpace(index, pos);
+                pos = tail.get();
+            }
+            else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Czeka na monitorze, aż slot index zwolni się dla pozycji pos albo subskrypcja zostanie zamknięta. Konsument
+    // sprawdza blocked po zwolnieniu slotu, a my sprawdzamy slot po zwiększeniu blocked, więc nie przegapimy
+    // powiadomienia. Wątek rotujący nie może przerwać czekania, bo trzyma warstwę.
+    private void awaitSpace(int index, long pos) {
+        boolean interrupted = false;
+        blocked.incrementAndGet();
+        try {
+            synchronized (monitor) {
+                while (sequences.get(index) - pos < 0 && !closed.get()) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            blocked.decrementAndGet();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyBlocked() {
+        if (blocked.get() > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    // Zwraca kolejne zdarzenie albo null, jeśli bufor jest pusty. Może być wywoływane tylko przez jeden wątek naraz.
+    public RotationEvent poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        RotationEvent event = new RotationEvent(sides[index], layers[index], versions[index]);
+        sequences.set(index, head + mask + 1);
+        head++;
+        notifyBlocked();
+        return event;
+    }
+
+    // Czeka na kolejne zdarzenie.
+    public RotationEvent take() throws InterruptedException {
+        while (true) {
+            RotationEvent event = poll();
+            if (event != null) {
+                return event;
+            }
+            sleepingConsumer = Thread.currentThread();
+            event = poll();
+            if (event == null) {
+                LockSupport.park(this);
+            }
+            sleepingConsumer = null;
+            if (event != null) {
+                return event;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // true, jeśli jakieś zdarzenie zostało zgubione z powodu przepełnienia bufora albo historia kostki została
+    // cofnięta (Cube.revertTo()), więc zdarzenia nie opisują już zmian stanu kostki.
+    public boolean isOverflowed() {
+        return overflowed.get();
+    }
+
+    // Wywoływane przez kostkę, gdy kolejne zdarzenia przestają opisywać zmiany jej stanu.
+    void invalidate() {
+        overflowed.set(true);
+    }
+
+    // Kończy subskrypcję. Wątki czekające na miejsce w buforze przestają czekać.
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            cube.unsubscribe(this);
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+}
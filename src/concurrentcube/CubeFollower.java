@@ -0,0 +1,213 @@
+// author - Patryk Jędrzejczak
+
+// Replika kostki tylko do odczytu, zasilana strumieniem obrotów z serwera kostki głównej (CubeServer). Replika
+// zaczyna od stanu przesłanego przez serwer, a potem stosuje na lokalnej kostce kolejne obroty. Obroty są stosowane
+// przez zwykłe rotate() lokalnej kostki, więc show() repliki podlega tym samym zasadom co show() kostki głównej,
+// ale nie blokuje obrotów na kostce głównej. Po zerwaniu połączenia (np. gdy replika nie nadążała) replika łączy się
+// ponownie i odtwarza stan od nowa.
+//
+// Współbieżne obroty jednej grupy na kostce głównej mogą trafić do strumienia w innej kolejności niż ich wersje.
+// Replika stosuje obroty jednym wątkiem, w kolejności wersji: obrót, przed którym brakuje wersji, czeka w buforze,
+// aż brakujące obroty dotrą. Wersja lokalnej kostki (getVersion(), snapshot()) jest więc równa wersji kostki
+// głównej, a stan repliki jest stanem kostki głównej o tej wersji. Replika nie odtwarza równoległości obrotów
+// kostki głównej - obroty są krótkie, a współbieżność repliki dotyczy jej show().
+//
+// Uruchomiona jako program (host port version) replika czeka na stan o wersji co najmniej version, wypisuje go i
+// kończy działanie. Pozwala to testować repliki w osobnych procesach.
+
+package concurrentcube;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CubeFollower implements AutoCloseable {
+
+    // czas oczekiwania przed ponownym połączeniem
+    private static final long RECONNECT_MILLIS = 100;
+
+    private final InetSocketAddress primary;
+    private final Runnable beforeShowing;
+    private final Runnable afterShowing;
+    // aktualna lokalna kostka, podmieniana przy ponownej synchronizacji
+    private final AtomicReference<Cube> replica = new AtomicReference<>();
+    // monitor, na którym czekają wątki w awaitVersion()
+    private final Object versionMonitor = new Object();
+    private final Thread applier;
+    private volatile SocketChannel channel;
+    private volatile boolean closed;
+
+    public CubeFollower(InetSocketAddress primary, Runnable beforeShowing, Runnable afterShowing) {
+        this.primary = primary;
+        this.beforeShowing = beforeShowing;
+        this.afterShowing = afterShowing;
+        applier = new Thread(this::follow, "cube-follower");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    public CubeFollower(InetSocketAddress primary) {
+        this(primary, () -> {}, () -> {});
+    }
+
+    private void follow() {
+        while (!closed) {
+            try (SocketChannel channel = SocketChannel.open(primary)) {
+                this.channel = channel;
+                if (closed) {
+                    return;
+                }
+                synchronize(channel);
+            } catch (IOException e) {
+                // Połączenie zerwane lub serwer niedostępny - spróbujemy ponownie.
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void synchronize(SocketChannel channel) throws IOException, InterruptedException {
+        ByteBuffer request = ByteBuffer.allocate(1).put(CubeServer.SUBSCRIBE);
+        request.flip();
+        CubeServer.writeFully(channel, request);
+
+        ByteBuffer in = ByteBuffer.allocate(CubeServer.BUFFER_SIZE);
+        in.flip();
+
+        in = fill(channel, in, CubeServer.STATE_HEADER_LENGTH);
+        if (in.get() != CubeServer.STATE) {
+            throw new IOException("unexpected frame");
+        }
+        long version = in.getLong();
+        int length = in.getInt();
+        StringBuilder state = new StringBuilder(length);
+        while (state.length() < length) {
+            in = fill(channel, in, 1);
+            while (in.hasRemaining() && state.length() < length) {
+                state.append((char) ('0' + in.get()));
+            }
+        }
+
+        int size = (int) Math.round(Math.sqrt(length / 6.0));
+        Cube cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, beforeShowing, afterShowing);
+        cube.restore(new CubeSnapshot(state.toString(), version));
+        replica.set(cube);
+        notifyVersion();
+
+        // obroty, przed którymi brakuje wersji, według wersji; wartość to ściana i warstwa
+        TreeMap<Long, int[]> pending = new TreeMap<>();
+        while (true) {
+            in = fill(channel, in, CubeServer.MOVE_LENGTH);
+            while (in.remaining() >= CubeServer.MOVE_LENGTH) {
+                if (in.get() != CubeServer.MOVE) {
+                    throw new IOException("unexpected frame");
+                }
+                int side = in.get();
+                int layer = in.getInt();
+                long moveVersion = in.getLong();
+                if (moveVersion <= version) {
+                    throw new IOException("duplicate move " + moveVersion);
+                }
+                pending.put(moveVersion, new int[]{side, layer});
+                if (pending.size() > CubeServer.FEED_CAPACITY) { // Brakujący obrót nie dotrze - zaczynamy od nowa.
+                    throw new IOException("missing move " + (version + 1));
+                }
+                // Każdy rotate() lokalnej kostki zwiększa jej wersję o 1, tak jak obrót o wersji version + 1.
+                while (!pending.isEmpty() && pending.firstKey() == version + 1) {
+                    int[] move = pending.pollFirstEntry().getValue();
+                    cube.rotate(move[0], move[1]);
+                    version++;
+                }
+            }
+            notifyVersion();
+        }
+    }
+
+    // Doczytuje dane, dopóki w buforze nie ma co najmniej bytes bajtów.
+    private static ByteBuffer fill(SocketChannel channel, ByteBuffer in, int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return in;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("connection closed by primary");
+            }
+        }
+        in.flip();
+        return in;
+    }
+
+    private void notifyVersion() {
+        synchronized (versionMonitor) {
+            versionMonitor.notifyAll();
+        }
+    }
+
+    // Numer wersji stanu repliki albo -1, jeśli replika jeszcze nie otrzymała stanu.
+    public long getVersion() {
+        Cube cube = replica.get();
+        return cube == null ? -1 : cube.getVersion();
+    }
+
+    // Czeka, aż replika osiągnie wersję co najmniej version. Zwraca false, jeśli upłynął czas oczekiwania.
+    public boolean awaitVersion(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (versionMonitor) {
+            while (getVersion() < version) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                versionMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public String show() throws InterruptedException {
+        return snapshot().getState();
+    }
+
+    public CubeSnapshot snapshot() throws InterruptedException {
+        Cube cube = replica.get();
+        if (cube == null) {
+            throw new IllegalStateException("replica is not synchronized yet");
+        }
+        return cube.snapshot();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        applier.interrupt();
+        SocketChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress primary = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        long version = Long.parseLong(args[2]);
+
+        try (CubeFollower follower = new CubeFollower(primary)) {
+            if (!follower.awaitVersion(version, 30, TimeUnit.SECONDS)) {
+                System.exit(1);
+            }
+            System.out.println(follower.show());
+        }
+    }
+
+}
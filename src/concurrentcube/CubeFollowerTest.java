@@ -0,0 +1,150 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class CubeFollowerTest {
+
+    private static final Random random = new Random();
+
+    private Cube getBasicCube(int size) {
+        return new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    private void rotateConcurrently(Cube cube, int size, int threadsNum, int rotations) throws InterruptedException {
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < rotations; j++) {
+                        cube.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i].join();
+        }
+    }
+
+    // Kilka replik, w tym jedna dołączająca w trakcie obrotów, kończy z tym samym stanem co kostka główna.
+    @Test
+    public void followersCatchUp() throws Exception {
+        int size = 6;
+        Cube primary = getBasicCube(size);
+
+        try (CubeServer server = CubeServer.onLoopback(primary);
+             CubeFollower early = new CubeFollower(server.getAddress());
+             CubeFollower other = new CubeFollower(server.getAddress())) {
+            assertTrue(early.awaitVersion(0, 10, TimeUnit.SECONDS));
+            rotateConcurrently(primary, size, 5, 2000);
+
+            try (CubeFollower late = new CubeFollower(server.getAddress())) {
+                rotateConcurrently(primary, size, 5, 2000);
+
+                long version = primary.getVersion();
+                assertEquals(20000, version);
+                for (CubeFollower follower : new CubeFollower[]{early, other, late}) {
+                    assertTrue(follower.awaitVersion(version, 10, TimeUnit.SECONDS));
+                    assertEquals(primary.show(), follower.show());
+                    assertEquals(version, follower.snapshot().getVersion());
+                }
+            }
+        }
+    }
+
+    // Replika w osobnym procesie połączona przez adres pętli zwrotnej.
+    @Test
+    public void followerProcess() throws Exception {
+        int size = 4;
+        Cube primary = getBasicCube(size);
+
+        try (CubeServer server = CubeServer.onLoopback(primary)) {
+            rotateConcurrently(primary, size, 4, 1000);
+
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    CubeFollower.class.getName(), server.getAddress().getHostString(),
+                    String.valueOf(server.getAddress().getPort()), String.valueOf(primary.getVersion()))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                assertEquals(primary.show(), output.readLine());
+            }
+            assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+        }
+    }
+
+    private static void sendMove(SocketChannel channel, int side, int layer, long version) throws Exception {
+        ByteBuffer frame = ByteBuffer.allocate(CubeServer.MOVE_LENGTH);
+        frame.put(CubeServer.MOVE).put((byte) side).putInt(layer).putLong(version).flip();
+        CubeServer.writeFully(channel, frame);
+    }
+
+    // Obroty ze strumienia są stosowane w kolejności wersji kostki głównej, także gdy dotarły w innej kolejności,
+    // a wersja repliki jest równa wersji kostki głównej.
+    @Test
+    public void followerAppliesMovesInVersionOrder() throws Exception {
+        int size = 3;
+        Cube expected = getBasicCube(size);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (CubeFollower follower = new CubeFollower((InetSocketAddress) server.getLocalAddress());
+                 SocketChannel channel = server.accept()) {
+                ByteBuffer request = ByteBuffer.allocate(1);
+                while (request.hasRemaining()) {
+                    channel.read(request);
+                }
+                assertEquals(CubeServer.SUBSCRIBE, request.get(0));
+
+                String solved = expected.show();
+                ByteBuffer state = ByteBuffer.allocate(CubeServer.STATE_HEADER_LENGTH + solved.length());
+                state.put(CubeServer.STATE).putLong(10).putInt(solved.length());
+                for (int i = 0; i < solved.length(); i++) {
+                    state.put((byte) (solved.charAt(i) - '0'));
+                }
+                state.flip();
+                CubeServer.writeFully(channel, state);
+
+                sendMove(channel, 0, 1, 12);
+                sendMove(channel, 0, 0, 11);
+                sendMove(channel, 5, 0, 14);
+                assertTrue(follower.awaitVersion(12, 10, TimeUnit.SECONDS));
+                assertFalse(follower.awaitVersion(13, 100, TimeUnit.MILLISECONDS));
+                assertEquals(12, follower.getVersion());
+
+                sendMove(channel, 0, 2, 13);
+                assertTrue(follower.awaitVersion(14, 10, TimeUnit.SECONDS));
+                expected.rotate(0, 0);
+                expected.rotate(0, 1);
+                expected.rotate(0, 2);
+                expected.rotate(5, 0);
+                CubeSnapshot snapshot = follower.snapshot();
+                assertEquals(14, snapshot.getVersion());
+                assertEquals(expected.show(), snapshot.getState());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+// author - Patryk Jędrzejczak
+
+// Geometria kostki: gdzie trafiają kwadraty przy obrocie warstwy. Pozycja kwadratu to trójka (face, row, column),
+// gdzie wiersze i kolumny są numerowane tak jak w show(). Pozycje są pakowane do jednej liczby typu long.
+
+package concurrentcube;
+
+final class CubeGeometry {
+
+    private static final int COORDINATE_BITS = 30;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+    private static final int[] OPPOSITE = {5, 3, 4, 1, 2, 0};
+    // RING[side] - cztery paski "brzegów" warstwy layer patrząc od ściany side: {ściana, 1 dla wiersza i 0 dla
+    // kolumny, 1 jeśli numer paska to layer i 0, jeśli size - layer - 1}. Odpowiada warunkom w sourceOf().
+    private static final int[][][] RING = {
+            {{1, 1, 1}, {2, 1, 1}, {3, 1, 1}, {4, 1, 1}},
+            {{0, 0, 1}, {4, 0, 0}, {5, 0, 1}, {2, 0, 1}},
+            {{0, 1, 0}, {1, 0, 0}, {5, 1, 1}, {3, 0, 1}},
+            {{0, 0, 0}, {2, 0, 0}, {5, 0, 0}, {4, 0, 1}},
+            {{0, 1, 1}, {3, 0, 0}, {5, 1, 0}, {1, 0, 1}},
+            {{1, 1, 0}, {2, 1, 0}, {3, 1, 0}, {4, 1, 0}}
+    };
+
+    // Odwiedzający pozycje kwadratów.
+    interface PositionVisitor {
+        void visit(int face, int row, int column);
+    }
+
+    private CubeGeometry() {
+    }
+
+    static long position(int face, int row, int column) {
+        return ((long) face << (2 * COORDINATE_BITS)) | ((long) row << COORDINATE_BITS) | column;
+    }
+
+    static int face(long position) {
+        return (int) (position >>> (2 * COORDINATE_BITS));
+    }
+
+    static int row(long position) {
+        return (int) ((position >>> COORDINATE_BITS) & COORDINATE_MASK);
+    }
+
+    static int column(long position) {
+        return (int) (position & COORDINATE_MASK);
+    }
+
+    // Indeks pozycji w opisie show().
+    static int index(int size, int face, int row, int column) {
+        return (face * size + row) * size + column;
+    }
+
+    // Ściana naprzeciwko ściany side: 0 - 5, 1 - 3, 2 - 4.
+    static int opposite(int side) {
+        return OPPOSITE[side];
+    }
+
+    // Jednoznaczna warstwa grupy 0 (obroty względem ścian 0 i 5), która jako jedyna w tej grupie przesuwa kwadraty
+    // wiersza row ściany face. Dla ściany górnej i dolnej jest to warstwa obracająca całą ścianę.
+    static int rowLayer(int size, int face, int row) {
+        if (face == 0) return 0;
+        else if (face == 5) return size - 1;
+        else return row;
+    }
+
+    // Jednoznaczna warstwa grupy 1 (obroty względem ścian 1 i 3), która jako jedyna w tej grupie przesuwa kwadraty
+    // kolumny column ściany face. Dla ściany lewej i prawej jest to warstwa obracająca całą ścianę.
+    static int columnLayer(int size, int face, int column) {
+        if (face == 1) return 0;
+        else if (face == 3) return size - 1;
+        else if (face == 4) return size - column - 1;
+        else return column;
+    }
+
+    // Jednoznaczna warstwa grupy ściany face, która obraca całą ścianę. Pozostałe warstwy tej grupy nie przesuwają
+    // kwadratów tej ściany.
+    static int faceLayer(int size, int face) {
+        return face < 3 ? 0 : size - 1;
+    }
+
+    // Pozycja, na której przed obrotem (side, layer) był kwadrat, który po obrocie jest na pozycji (face, row, column).
+    // Odpowiada dokładnie operacjom wykonywanym przez DenseCubeState.
+    static long sourceOf(int size, int side, int layer, int face, int row, int column) {
+        int last = size - 1;
+
+        // Obrót całej ściany (zewnętrzne warstwy).
+        if (layer == 0 && face == side) {
+            return position(face, last - column, row);
+        }
+        if (layer == last && face == opposite(side)) {
+            return position(face, column, last - row);
+        }
+
+        // Obrót "brzegów" warstwy.
+        switch (side) {
+            case 0:
+                if (row == layer && face >= 1 && face <= 4) {
+                    return position(face == 4 ? 1 : face + 1, row, column);
+                }
+                break;
+            case 1:
+                if (face == 0 && column == layer) return position(4, last - row, last - layer);
+                if (face == 4 && column == last - layer) return position(5, last - row, layer);
+                if (face == 5 && column == layer) return position(2, row, layer);
+                if (face == 2 && column == layer) return position(0, row, layer);
+                break;
+            case 2:
+                if (face == 0 && row == last - layer) return position(1, last - column, last - layer);
+                if (face == 1 && column == last - layer) return position(5, layer, row);
+                if (face == 5 && row == layer) return position(3, last - column, layer);
+                if (face == 3 && column == layer) return position(0, last - layer, row);
+                break;
+            case 3:
+                if (face == 0 && column == last - layer) return position(2, row, last - layer);
+                if (face == 2 && column == last - layer) return position(5, row, last - layer);
+                if (face == 5 && column == last - layer) return position(4, last - row, layer);
+                if (face == 4 && column == layer) return position(0, last - row, last - layer);
+                break;
+            case 4:
+                if (face == 0 && row == layer) return position(3, column, last - layer);
+                if (face == 3 && column == last - layer) return position(5, last - layer, last - row);
+                if (face == 5 && row == last - layer) return position(1, column, layer);
+                if (face == 1 && column == layer) return position(0, layer, last - row);
+                break;
+            case 5:
+                if (row == last - layer && face >= 1 && face <= 4) {
+                    return position(face == 1 ? 4 : face - 1, row, column);
+                }
+                break;
+        }
+
+        return position(face, row, column);
+    }
+
+    // Odwiedza wszystkie pozycje, których kwadraty mogą się przesunąć przy obrocie (side, layer): paski "brzegów"
+    // warstwy i całe ściany obracane przez zewnętrzne warstwy.
+    static void forEachMoved(int size, int side, int layer, PositionVisitor visitor) {
+        for (int[] strip : RING[side]) {
+            int index = strip[2] == 1 ? layer : size - layer - 1;
+            for (int i = 0; i < size; i++) {
+                if (strip[1] == 1) visitor.visit(strip[0], index, i);
+                else visitor.visit(strip[0], i, index);
+            }
+        }
+        if (layer == 0) {
+            forEachOnFace(size, side, visitor);
+        }
+        if (layer == size - 1) {
+            forEachOnFace(size, opposite(side), visitor);
+        }
+    }
+
+    private static void forEachOnFace(int size, int face, PositionVisitor visitor) {
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                visitor.visit(face, row, column);
+            }
+        }
+    }
+
+    // Pozycja, z której kwadrat trafia na pozycję (face, row, column) przy obrocie całej kostki, patrząc od ściany
+    // side < 2 (obrót wszystkich warstw grupy tej ściany).
+    static long wholeCubeSourceOf(int size, int side, int face, int row, int column) {
+        int layer = side == 0 ? rowLayer(size, face, row) : columnLayer(size, face, column);
+        return sourceOf(size, side, layer, face, row, column);
+    }
+
+    // Obrót (side, layer) jako permutacja indeksów opisu show(): kwadrat z indeksu result[i] trafia na indeks i.
+    static int[] permutation(int size, int side, int layer) {
+        int[] result = new int[6 * size * size];
+        for (int face = 0; face < 6; face++) {
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    long source = sourceOf(size, side, layer, face, row, column);
+                    result[index(size, face, row, column)] = index(size, face(source), row(source), column(source));
+                }
+            }
+        }
+        return result;
+    }
+
+}
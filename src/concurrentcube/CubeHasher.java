@@ -0,0 +1,155 @@
+// author - Patryk Jędrzejczak
+
+// Skrót stanu kostki w stylu Zobrista: XOR wartości z(pozycja, kolor) po wszystkich kwadratach. Obrót zmienia tylko
+// kwadraty swojej warstwy, więc skrót jest aktualizowany przez XOR z różnicą policzoną dla tych kwadratów. Obroty
+// różnych warstw jednej grupy zmieniają rozłączne zbiory kwadratów, a XOR jest przemienny, więc mogą aktualizować
+// skrót współbieżnie. Wartości z są liczone funkcją mieszającą, więc nie trzeba trzymać tablicy rozmiaru kostki.
+//
+// Opcjonalnie liczone są skróty stanu widzianego po każdym z 24 obrotów całej kostki, z kolorami przenumerowanymi
+// tak, żeby kostka ułożona przechodziła na ułożoną. Ich minimum (odcisk kanoniczny) jest takie samo dla stanów
+// symetrycznych względem obrotu całej kostki, które mają rozwiązania różniące się tylko przenumerowaniem ścian.
+
+package concurrentcube;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class CubeHasher {
+
+    private static final int ORIENTATIONS = 24;
+
+    private final int size;
+    // orientations[h] - ciąg obrotów całej kostki (patrząc od ściany 0 lub 1) tworzący orientację h; orientacja 0
+    // to identyczność
+    private final int[][] orientations;
+    // recolor[h][c] - kolor, na który w orientacji h przechodzi kolor c
+    private final int[][] recolor;
+    // hashes[h] - skrót stanu w orientacji h
+    private final AtomicLong[] hashes;
+
+    CubeHasher(int size, boolean canonical) {
+        this.size = size;
+
+        if (canonical) {
+            List<int[]> words = new ArrayList<>();
+            List<int[]> recolors = new ArrayList<>();
+            words.add(new int[0]);
+            recolors.add(recolorOf(new int[0]));
+            // Przeszukiwanie wszerz grupy obrotów kostki generowanej przez obroty względem ścian 0 i 1.
+            for (int i = 0; i < words.size() && words.size() < ORIENTATIONS; i++) {
+                for (int generator = 0; generator < 2; generator++) {
+                    int[] word = Arrays.copyOf(words.get(i), words.get(i).length + 1);
+                    word[word.length - 1] = generator;
+                    int[] colors = recolorOf(word);
+                    if (recolors.stream().noneMatch(known -> Arrays.equals(known, colors))) {
+                        words.add(word);
+                        recolors.add(colors);
+                    }
+                }
+            }
+            orientations = words.toArray(new int[0][]);
+            recolor = recolors.toArray(new int[0][]);
+        }
+        else {
+            orientations = new int[][]{new int[0]};
+            recolor = new int[][]{recolorOf(new int[0])};
+        }
+
+        hashes = new AtomicLong[orientations.length];
+        for (int h = 0; h < hashes.length; h++) {
+            hashes[h] = new AtomicLong();
+        }
+    }
+
+    // Pozycja, z której kwadrat trafia na pozycję (face, row, column) po obrotach całej kostki z word.
+    private long sourceOf(int[] word, int face, int row, int column) {
+        long position = CubeGeometry.position(face, row, column);
+        for (int i = word.length - 1; i >= 0; i--) {
+            position = CubeGeometry.wholeCubeSourceOf(size, word[i], CubeGeometry.face(position),
+                    CubeGeometry.row(position), CubeGeometry.column(position));
+        }
+        return position;
+    }
+
+    // Ściana, na którą trafiają kwadraty ściany c, wyznacza przenumerowanie kolorów.
+    private int[] recolorOf(int[] word) {
+        int[] result = new int[6];
+        for (int face = 0; face < 6; face++) {
+            result[face] = CubeGeometry.face(sourceOf(word, face, 0, 0));
+        }
+        return result;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    private long z(long position, int color) {
+        long index = ((long) CubeGeometry.face(position) * size + CubeGeometry.row(position)) * size +
+                CubeGeometry.column(position);
+        return mix((index * 6 + color + 1) * 0x9e3779b97f4a7c15L);
+    }
+
+    // Wkład kwadratu o kolorze color na pozycji (face, row, column) do skrótu orientacji h.
+    private long contribution(int h, int face, int row, int column, int color) {
+        return z(sourceOf(orientations[h], face, row, column), recolor[h][color]);
+    }
+
+    // Liczy skróty od nowa. Wywoływane tylko, gdy nikt nie zmienia stanu.
+    void reset(CubeState state) {
+        for (int h = 0; h < hashes.length; h++) {
+            long hash = 0;
+            for (int face = 0; face < 6; face++) {
+                for (int row = 0; row < size; row++) {
+                    for (int column = 0; column < size; column++) {
+                        hash ^= contribution(h, face, row, column, state.colorAt(face, row, column));
+                    }
+                }
+            }
+            hashes[h].set(hash);
+        }
+    }
+
+    // Uwzględnia obrót (side, layer), który zaraz zostanie wykonany na state. Wywoływane przez wątek mający
+    // wyłączność na tę warstwę.
+    void beforeRotation(CubeState state, int side, int layer) {
+        long[] delta = new long[hashes.length];
+        CubeGeometry.forEachMoved(size, side, layer, (face, row, column) -> {
+            long source = CubeGeometry.sourceOf(size, side, layer, face, row, column);
+            int oldColor = state.colorAt(face, row, column);
+            int newColor = state.colorAt(CubeGeometry.face(source), CubeGeometry.row(source),
+                    CubeGeometry.column(source));
+            if (oldColor != newColor) {
+                for (int h = 0; h < delta.length; h++) {
+                    delta[h] ^= contribution(h, face, row, column, oldColor) ^
+                            contribution(h, face, row, column, newColor);
+                }
+            }
+        });
+        for (int h = 0; h < delta.length; h++) {
+            long d = delta[h];
+            hashes[h].getAndUpdate(hash -> hash ^ d);
+        }
+    }
+
+    long hash() {
+        return hashes[0].get();
+    }
+
+    long canonicalFingerprint() {
+        long result = Long.MAX_VALUE;
+        for (AtomicLong hash : hashes) {
+            result = Math.min(result, hash.get());
+        }
+        return result;
+    }
+
+    boolean isCanonical() {
+        return hashes.length > 1;
+    }
+
+}
@@ -0,0 +1,134 @@
+// author - Patryk Jędrzejczak
+
+// Historia obrotów kostki: ostatnie capacity obrotów w buforze cyklicznym (3 bajty na obrót: ściana na 3 bitach
+// i warstwa na 21 bitach) oraz stany zapamiętane co najmniej co checkpointInterval wersji (punkty kontrolne). Stan
+// o dowolnej wersji z okna historii powstaje z najbliższego punktu kontrolnego lub aktualnego stanu przez wykonanie
+// obrotów z bufora do przodu albo obrotów odwrotnych do tyłu, więc koszt jest proporcjonalny do tej odległości.
+//
+// Obrót o wersji v jest zapisywany przez wątek rotujący do slotu (v - 1) mod capacity. Współbieżne obroty zapisują
+// różne sloty. Pozostałe metody są wywoływane w protokole show(), więc nie są współbieżne z obrotami, ale mogą być
+// współbieżne ze sobą - stąd synchronizacja.
+//
+// Po cofnięciu historii obroty późniejsze niż aktualna wersja zostają w buforze i można je wykonać ponownie (redo),
+// dopóki kostka nie wykona nowego obrotu. Nowy obrót zaczyna nową gałąź historii.
+
+package concurrentcube;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+final class CubeHistory {
+
+    // największy rozmiar kostki, dla którego numer warstwy mieści się na 21 bitach
+    static final int MAX_SIZE = 1 << 21;
+    private static final int LAYER_BITS = 21;
+    private static final int MOVE_BYTES = 3;
+
+    private final int capacity;
+    private final int checkpointInterval;
+    private final byte[] moves;
+    // punkty kontrolne na bieżącej gałęzi historii, według wersji
+    private final TreeMap<Long, String> checkpoints = new TreeMap<>();
+    // najmniejsza wersja, od której jest zapisana historia
+    private long base;
+    // największa wersja, do której można wykonać redo, albo -1; zerowana przez pierwszy obrót po cofnięciu historii
+    private volatile long redoEnd = -1;
+    // wersja, do której ostatnio cofnięto historię, albo -1; punkty kontrolne za nią są nieaktualne, gdy redoEnd == -1
+    private long branchPoint = -1;
+
+    CubeHistory(int capacity, int checkpointInterval) {
+        this.capacity = capacity;
+        this.checkpointInterval = checkpointInterval;
+        moves = new byte[capacity * MOVE_BYTES];
+    }
+
+    private int slot(long version) {
+        return (int) ((version - 1) % capacity) * MOVE_BYTES;
+    }
+
+    // Wywoływane przez wątek rotujący po nadaniu obrotowi wersji version.
+    void record(long version, int side, int layer) {
+        int slot = slot(version);
+        int packed = (side << LAYER_BITS) | layer;
+        moves[slot] = (byte) (packed >>> 16);
+        moves[slot + 1] = (byte) (packed >>> 8);
+        moves[slot + 2] = (byte) packed;
+        if (redoEnd >= 0) {
+            redoEnd = -1;
+        }
+    }
+
+    private int packed(long version) {
+        int slot = slot(version);
+        return ((moves[slot] & 0xff) << 16) | ((moves[slot + 1] & 0xff) << 8) | (moves[slot + 2] & 0xff);
+    }
+
+    int side(long version) {
+        return packed(version) >>> LAYER_BITS;
+    }
+
+    int layer(long version) {
+        return packed(version) & ((1 << LAYER_BITS) - 1);
+    }
+
+    // Usuwa punkty kontrolne z porzuconej gałęzi historii.
+    private void syncBranch() {
+        if (branchPoint >= 0 && redoEnd < 0) {
+            checkpoints.tailMap(branchPoint, false).clear();
+            branchPoint = -1;
+        }
+    }
+
+    // Największa wersja na bieżącej gałęzi historii przy aktualnej wersji current.
+    synchronized long top(long current) {
+        syncBranch();
+        return Math.max(current, redoEnd);
+    }
+
+    // Najmniejsza wersja, którą można odtworzyć przy aktualnej wersji current.
+    synchronized long oldest(long current) {
+        return Math.max(base, top(current) - capacity);
+    }
+
+    // Zapamiętuje stan o wersji version, jeśli od najbliższego punktu kontrolnego minęło co najmniej
+    // checkpointInterval wersji. Usuwa punkty kontrolne, których nie da się już użyć.
+    synchronized void checkpoint(long version, String state, long current) {
+        long oldest = oldest(current);
+        checkpoints.headMap(oldest, false).clear();
+
+        Long floor = checkpoints.floorKey(version);
+        Long ceiling = checkpoints.ceilingKey(version);
+        if ((floor == null || version - floor >= checkpointInterval) &&
+                (ceiling == null || ceiling - version >= checkpointInterval)) {
+            checkpoints.put(version, state);
+        }
+    }
+
+    // Najbliższy wersji version punkt kontrolny albo null. Punkty kontrolne starsze niż oldest(current) są usuwane
+    // także tutaj, a nie tylko w checkpoint(), bo obroty od nich do okna historii zostały już nadpisane w buforze.
+    synchronized Map.Entry<Long, String> nearestCheckpoint(long version, long current) {
+        checkpoints.headMap(oldest(current), false).clear();
+        Map.Entry<Long, String> floor = checkpoints.floorEntry(version);
+        Map.Entry<Long, String> ceiling = checkpoints.ceilingEntry(version);
+        if (floor == null) return ceiling;
+        if (ceiling == null) return floor;
+        return version - floor.getKey() <= ceiling.getKey() - version ? floor : ceiling;
+    }
+
+    // Wywoływane przy cofnięciu historii z wersji current do target (z wyłącznym dostępem do kostki).
+    synchronized void travelled(long current, long target) {
+        syncBranch();
+        redoEnd = Math.max(redoEnd, current);
+        branchPoint = target;
+    }
+
+    // Zaczyna historię od nowa od stanu state o wersji version.
+    synchronized void reset(long version, String state) {
+        checkpoints.clear();
+        checkpoints.put(version, state);
+        base = version;
+        redoEnd = -1;
+        branchPoint = -1;
+    }
+
+}
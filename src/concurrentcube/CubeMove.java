@@ -0,0 +1,50 @@
+// author - Patryk Jędrzejczak
+
+// Obrót kostki w konwencji Cube.rotate(side, layer): warstwa layer patrząc od ściany side, zgodnie z ruchem wskazówek
+// zegara.
+
+package concurrentcube;
+
+public final class CubeMove {
+
+    private final int side;
+    private final int layer;
+
+    public CubeMove(int side, int layer) {
+        this.side = side;
+        this.layer = layer;
+    }
+
+    public int getSide() {
+        return side;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    // Wykonuje obrót na kostce cube.
+    public void applyTo(Cube cube) throws InterruptedException {
+        cube.rotate(side, layer);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CubeMove)) {
+            return false;
+        }
+        CubeMove move = (CubeMove) other;
+        return side == move.side && layer == move.layer;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * side + layer;
+    }
+
+    @Override
+    public String toString() {
+        return "CubeMove(" + side + ", " + layer + ")";
+    }
+
+}
@@ -0,0 +1,138 @@
+// author - Patryk Jędrzejczak
+
+// Rejestr wielu kostek w jednej maszynie wirtualnej. Kostki są rozdzielone między stałą liczbę shardów, a każdy shard
+// ma własny wątek (pętlę zdarzeń), który wykonuje wszystkie operacje na jego kostkach. Dzięki temu liczba wątków nie
+// zależy od liczby kostek, a operacje na kostkach z różnych shardów wykonują się współbieżnie.
+//
+// Akcje kostek (beforeRotation, afterRotation, beforeShowing, afterShowing) są wywoływane przez wątek sharda, tak jak
+// całe operacje. Akcja, która blokuje albo długo działa, wstrzymuje więc wszystkie kostki swojego sharda, nie tylko
+// swoją kostkę. Takie akcje powinny przekazywać pracę innym wątkom.
+
+package concurrentcube;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+public class CubeRegistry implements AutoCloseable {
+
+    private static class Shard {
+
+        // Mapa jest używana tylko przez wątek sharda, więc nie musi być współbieżna.
+        private final Map<Long, Cube> cubes = new HashMap<>();
+        private final ExecutorService loop;
+
+        private Shard(int number) {
+            loop = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cube-shard-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private Cube get(long id) {
+            Cube cube = cubes.get(id);
+            if (cube == null) {
+                throw new IllegalArgumentException("no cube with id " + id);
+            }
+            return cube;
+        }
+
+    }
+
+    // Operacja wykonywana przez wątek sharda.
+    private interface ShardTask<T> {
+        T run(Shard shard) throws InterruptedException;
+    }
+
+    private final Shard[] shards;
+
+    public CubeRegistry(int shardsNum) {
+        if (shardsNum <= 0) {
+            throw new IllegalArgumentException("shardsNum must be positive");
+        }
+        shards = new Shard[shardsNum];
+        for (int i = 0; i < shardsNum; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    // Domyślnie jeden shard na rdzeń.
+    public CubeRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    private Shard shardOf(long id) {
+        // Mieszamy identyfikator, żeby kolejne identyfikatory równomiernie rozkładały się na shardy.
+        return shards[Math.floorMod(Long.hashCode(id * 0x9E3779B97F4A7C15L), shards.length)];
+    }
+
+    private <T> CompletableFuture<T> submit(long id, ShardTask<T> task) {
+        Shard shard = shardOf(id);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        shard.loop.execute(() -> {
+            try {
+                result.complete(task.run(shard));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Void> create(long id,
+                                          int size,
+                                          BiConsumer<Integer, Integer> beforeRotation,
+                                          BiConsumer<Integer, Integer> afterRotation,
+                                          Runnable beforeShowing,
+                                          Runnable afterShowing) {
+        return submit(id, shard -> {
+            if (shard.cubes.containsKey(id)) {
+                throw new IllegalArgumentException("cube with id " + id + " already exists");
+            }
+            shard.cubes.put(id, new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing));
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> create(long id, int size) {
+        return create(id, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    public CompletableFuture<Void> rotate(long id, int side, int layer) {
+        return submit(id, shard -> {
+            shard.get(id).rotate(side, layer);
+            return null;
+        });
+    }
+
+    public CompletableFuture<String> show(long id) {
+        return submit(id, shard -> shard.get(id).show());
+    }
+
+    // Zwraca true, jeśli kostka istniała.
+    public CompletableFuture<Boolean> remove(long id) {
+        return submit(id, shard -> shard.cubes.remove(id) != null);
+    }
+
+    // Kończy pracę shardów po wykonaniu wszystkich zleconych operacji. Jeśli wątek zostanie przerwany podczas
+    // czekania, przestajemy czekać i zostawiamy ustawioną flagę przerwania.
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.loop.shutdown();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.loop.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
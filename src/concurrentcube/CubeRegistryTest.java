@@ -0,0 +1,57 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class CubeRegistryTest {
+
+    // Operacje na wielu kostkach z różnych shardów dają ten sam wynik co na pojedynczych kostkach.
+    @Test
+    public void manyCubes() throws Exception {
+        int cubesNum = 1000;
+        int size = 3;
+
+        try (CubeRegistry registry = new CubeRegistry(4)) {
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (long id = 0; id < cubesNum; id++) {
+                futures.add(registry.create(id, size));
+                futures.add(registry.rotate(id, (int) (id % 6), (int) (id % size)));
+            }
+            for (CompletableFuture<?> future : futures) {
+                future.get();
+            }
+
+            for (long id = 0; id < cubesNum; id++) {
+                Cube cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+                cube.rotate((int) (id % 6), (int) (id % size));
+                assertEquals(cube.show(), registry.show(id).get());
+            }
+        }
+    }
+
+    // Operacje na nieistniejącej kostce kończą się błędem, a usunięcie kostki zwalnia jej identyfikator.
+    @Test
+    public void missingCube() throws Exception {
+        try (CubeRegistry registry = new CubeRegistry(2)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> registry.show(7).get());
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+
+            registry.create(7, 2).get();
+            assertThrows(ExecutionException.class, () -> registry.create(7, 2).get());
+            assertTrue(registry.remove(7).get());
+            assertFalse(registry.remove(7).get());
+        }
+    }
+
+}
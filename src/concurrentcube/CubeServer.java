@@ -0,0 +1,270 @@
+// author - Patryk Jędrzejczak
+
+// Serwer udostępniający kostkę innym procesom przez gniazdo TCP (zwykle na adresie pętli zwrotnej).
+//
+// Protokół jest binarny. Klient wysyła ramki:
+//  ROTATE (1 bajt) side (1 bajt) layer (4 bajty) - obrót warstwy,
+//  SHOW (1 bajt)                                  - pokazanie stanu kostki,
+//  SUBSCRIBE (1 bajt)                             - zamiana połączenia w strumień obrotów dla repliki.
+// Serwer odpowiada ramkami:
+//  ACK (1 bajt) count (4 bajty)                   - potwierdzenie count kolejnych obrotów,
+//  SNAPSHOT (1 bajt) length (4 bajty) colors      - stan kostki, jeden bajt koloru (0..5) na kwadrat, w kolejności
+//                                                   takiej jak w show(),
+//  STATE (1 bajt) version (8 bajtów) length (4 bajty) colors
+//                                                 - stan kostki z numerem wersji, pierwsza ramka subskrypcji,
+//  MOVE (1 bajt) side (1 bajt) layer (4 bajty) version (8 bajtów)
+//                                                 - obrót wykonany na kostce po wysłaniu stanu.
+// Klient może wysyłać kolejne żądania bez czekania na odpowiedzi. Serwer wykonuje żądania jednego połączenia po kolei,
+// a obroty odczytane za jednym razem z gniazda potwierdza jedną ramką ACK, więc liczba wywołań systemowych nie rośnie
+// z liczbą żądań. Każde połączenie obsługuje osobny wątek, bo operacje na kostce mogą blokować. Klient ogranicza
+// liczbę niepotwierdzonych obrotów tak, żeby ramki ACK zawsze mieściły się w jego buforze odbiorczym (CubeClient).
+//
+// Błąd przyjmowania połączenia nie zatrzymuje serwera: połączenie jest zamykane, a wyjątek jest przekazywany do
+// UncaughtExceptionHandler wątku przyjmującego połączenia.
+//
+// Po SUBSCRIBE serwer wysyła stan kostki, a potem każdy kolejny obrót. Jeśli replika nie nadąża i bufor subskrypcji
+// się przepełni, serwer zamyka połączenie, a replika powinna połączyć się ponownie i zacząć od nowego stanu.
+
+package concurrentcube;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class CubeServer implements AutoCloseable {
+
+    static final byte ROTATE = 1;
+    static final byte SHOW = 2;
+    static final byte SUBSCRIBE = 3;
+    static final int ROTATE_LENGTH = 6;
+
+    static final byte ACK = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte STATE = 3;
+    static final byte MOVE = 4;
+    static final int HEADER_LENGTH = 5;
+    static final int STATE_HEADER_LENGTH = 13;
+    static final int MOVE_LENGTH = 14;
+
+    // rozmiar bufora subskrypcji dla jednej repliki
+    static final int FEED_CAPACITY = 1 << 16;
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    // przerwa po błędzie accept(), np. braku deskryptorów plików, żeby nie powtarzać go w pętli bez końca
+    private static final long ACCEPT_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Cube cube;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    public CubeServer(Cube cube, InetSocketAddress address) throws IOException {
+        this.cube = cube;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "cube-server-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        acceptor = new Thread(this::acceptConnections, "cube-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // Serwer na losowym wolnym porcie adresu pętli zwrotnej.
+    public static CubeServer onLoopback(Cube cube) throws IOException {
+        return new CubeServer(cube, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return; // Serwer został zamknięty.
+            } catch (IOException e) {
+                report(e);
+                LockSupport.parkNanos(ACCEPT_RETRY_NANOS);
+                continue;
+            }
+
+            try {
+                channel.socket().setTcpNoDelay(true);
+                connections.add(channel);
+                workers.execute(() -> serve(channel));
+            } catch (IOException e) {
+                closeConnection(channel);
+                report(e);
+            } catch (RejectedExecutionException e) { // Serwer jest zamykany.
+                closeConnection(channel);
+                return;
+            }
+        }
+    }
+
+    private static void report(IOException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private void closeConnection(SocketChannel channel) {
+        connections.remove(channel);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Połączenie i tak nie będzie używane.
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        try (channel) {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                int acks = 0;
+
+                while (in.hasRemaining()) {
+                    byte type = in.get(in.position());
+                    if (type == ROTATE) {
+                        if (in.remaining() < ROTATE_LENGTH) {
+                            break; // Reszta ramki jeszcze nie dotarła.
+                        }
+                        in.get();
+                        int side = in.get();
+                        int layer = in.getInt();
+                        if (side < 0 || side > 5 || layer < 0 || layer >= cube.getSize()) {
+                            return; // Błędne żądanie - zamykamy połączenie.
+                        }
+                        cube.rotate(side, layer);
+                        acks++;
+                    }
+                    else if (type == SHOW) {
+                        in.get();
+                        acks = writeAck(channel, out, acks);
+                        writeSnapshot(channel, out, cube.show());
+                    }
+                    else if (type == SUBSCRIBE) {
+                        in.get();
+                        writeAck(channel, out, acks);
+                        stream(channel, out);
+                        return;
+                    }
+                    else {
+                        return; // Nieznany typ ramki - zamykamy połączenie.
+                    }
+                }
+
+                writeAck(channel, out, acks);
+                in.compact();
+            }
+        } catch (InterruptedException e) {
+            // Serwer jest zamykany.
+        } catch (IOException e) {
+            // Klient zamknął połączenie.
+        } finally {
+            connections.remove(channel);
+        }
+    }
+
+    // Wysyła replice stan kostki, a następnie obroty wykonane po jego pokazaniu.
+    private void stream(SocketChannel channel, ByteBuffer out) throws IOException, InterruptedException {
+        // Subskrybujemy przed pokazaniem stanu, więc każdy obrót o wersji większej niż pokazana trafi do subskrypcji.
+        try (CubeFeed feed = cube.subscribe(FEED_CAPACITY, CubeFeed.Overflow.DROP)) {
+            CubeSnapshot snapshot = cube.snapshot();
+            byte[] colors = toColors(snapshot.getState());
+            out.clear();
+            out.put(STATE).putLong(snapshot.getVersion()).putInt(colors.length).flip();
+            ByteBuffer[] frame = {out, ByteBuffer.wrap(colors)};
+            while (frame[1].hasRemaining()) {
+                channel.write(frame);
+            }
+
+            out.clear();
+            while (!feed.isOverflowed()) {
+                RotationEvent event = feed.poll();
+                if (event == null) { // Wysyłamy zebrane obroty i czekamy na kolejne.
+                    out.flip();
+                    writeFully(channel, out);
+                    out.clear();
+                    event = feed.take();
+                }
+                if (event.getVersion() <= snapshot.getVersion()) {
+                    continue; // Ten obrót jest już uwzględniony w wysłanym stanie.
+                }
+                if (out.remaining() < MOVE_LENGTH) {
+                    out.flip();
+                    writeFully(channel, out);
+                    out.clear();
+                }
+                out.put(MOVE).put((byte) event.getSide()).putInt(event.getLayer()).putLong(event.getVersion());
+            }
+        }
+    }
+
+    // Wysyła potwierdzenie zebranych obrotów. Zwraca liczbę niepotwierdzonych obrotów, czyli 0.
+    private static int writeAck(SocketChannel channel, ByteBuffer out, int acks) throws IOException {
+        if (acks > 0) {
+            out.clear();
+            out.put(ACK).putInt(acks).flip();
+            writeFully(channel, out);
+        }
+        return 0;
+    }
+
+    private static byte[] toColors(String state) {
+        byte[] colors = new byte[state.length()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (byte) (state.charAt(i) - '0');
+        }
+        return colors;
+    }
+
+    private static void writeSnapshot(SocketChannel channel, ByteBuffer out, String state) throws IOException {
+        byte[] colors = toColors(state);
+
+        out.clear();
+        out.put(SNAPSHOT).putInt(colors.length).flip();
+        ByteBuffer[] frame = {out, ByteBuffer.wrap(colors)};
+        while (frame[1].hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Zamyka serwer i wszystkie połączenia. Wątki czekające na operację na kostce zostają przerwane.
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SocketChannel channel : connections) {
+            channel.close();
+        }
+        workers.shutdownNow();
+    }
+
+}
@@ -0,0 +1,93 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class CubeServerTest {
+
+    private static final Random random = new Random();
+
+    private Cube getBasicCube(int size) {
+        return new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    // Potokowo wysłane obroty dają ten sam stan co obroty wykonane lokalnie.
+    @Test
+    public void pipelinedRotations() throws Exception {
+        int size = 5;
+        int rotations = 100000;
+        Cube remoteCube = getBasicCube(size);
+        Cube localCube = getBasicCube(size);
+
+        try (CubeServer server = CubeServer.onLoopback(remoteCube);
+             CubeClient client = new CubeClient(server.getAddress())) {
+            for (int i = 0; i < rotations; i++) {
+                int side = random.nextInt(6);
+                int layer = random.nextInt(size);
+                client.rotate(side, layer);
+                localCube.rotate(side, layer);
+            }
+
+            assertEquals(localCube.show(), client.show());
+            assertEquals(0, client.getPending());
+        }
+    }
+
+    // Kilku klientów jednocześnie korzysta z jednej kostki. Liczba kolorów musi się zgadzać.
+    @Test
+    public void concurrentClients() throws Exception {
+        int size = 4;
+        int clientsNum = 5;
+        Cube cube = getBasicCube(size);
+
+        try (CubeServer server = CubeServer.onLoopback(cube)) {
+            Thread[] threads = new Thread[clientsNum];
+            for (int i = 0; i < clientsNum; i++) {
+                threads[i] = new Thread(() -> {
+                    try (CubeClient client = new CubeClient(server.getAddress())) {
+                        for (int j = 0; j < 10000; j++) {
+                            client.rotate(random.nextInt(6), random.nextInt(size));
+                            if (j % 1000 == 0) {
+                                client.show();
+                            }
+                        }
+                        client.sync();
+                    } catch (IOException e) {
+                        System.err.println("client failed");
+                    }
+                });
+                threads[i].start();
+            }
+            for (int i = 0; i < clientsNum; i++) {
+                threads[i].join();
+            }
+
+            String state = cube.show();
+            int[] colorCount = new int[6];
+            for (int i = 0; i < state.length(); i++) {
+                colorCount[state.charAt(i) - '0']++;
+            }
+            for (int i = 0; i < 6; i++) {
+                assertEquals(size * size, colorCount[i]);
+            }
+        }
+    }
+
+    // Serwer zamyka połączenie po błędnym żądaniu.
+    @Test
+    public void invalidRequest() throws Exception {
+        try (CubeServer server = CubeServer.onLoopback(getBasicCube(3));
+             CubeClient client = new CubeClient(server.getAddress())) {
+            client.rotate(0, 3);
+            assertThrows(IOException.class, client::sync);
+        }
+    }
+
+}
@@ -1,94 +1,123 @@
 // author - Patryk Jędrzejczak
 
-// Klasa reprezentująca jedną ściankę kostki.
+// Klasa reprezentująca jedną ściankę kostki. Kolory są trzymane w jednej tablicy bajtów wierszami, więc wiersz jest
+// ciągłym fragmentem tablicy, a kolumna - fragmentem z krokiem size. Współbieżne obroty różnych warstw zapisują
+// rozłączne elementy tablicy, a zapis bajtu nie narusza sąsiednich bajtów.
 
 package concurrentcube;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
 
-public class CubeSide {
-    AtomicInteger[][] color;
+public class CubeSide implements FaceStore {
+    byte[] color;
     int size;
 
     public CubeSide(int size, int initialColor) {
         this.size = size;
-        color = new AtomicInteger[size][size];
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                color[i][j] = new AtomicInteger(initialColor);
-            }
-        }
+        color = new byte[size * size];
+        Arrays.fill(color, (byte) initialColor);
     }
 
-    public AtomicInteger[] getRow(int row) {
-        return Arrays.copyOf(color[row], size);
+    @Override
+    public int get(int row, int column) {
+        return color[row * size + column];
+    }
+
+    @Override
+    public byte[] getRow(int row) {
+        byte[] result = new byte[size];
+        System.arraycopy(color, row * size, result, 0, size);
+        return result;
     }
 
-    public AtomicInteger[] getColumn(int column) {
-        AtomicInteger[] result = new AtomicInteger[size];
-        for (int i = 0; i < size; i++) {
-            result[i] = new AtomicInteger(color[i][column].get());
+    @Override
+    public byte[] getColumn(int column) {
+        byte[] result = new byte[size];
+        for (int i = 0, index = column; i < size; i++, index += size) {
+            result[i] = color[index];
         }
         return result;
     }
 
-    private AtomicInteger[] reverseTable(AtomicInteger[] t) {
-        for (int i = 0; i < size / 2; i++) {
-            int temp = t[i].get();
-            t[i].set(t[size - i - 1].get());
-            t[size - i - 1].set(temp);
+    @Override
+    public byte[] getReversedRow(int row) {
+        byte[] result = new byte[size];
+        for (int i = 0, index = row * size + size - 1; i < size; i++, index--) {
+            result[i] = color[index];
         }
-        return t;
+        return result;
     }
 
-    public AtomicInteger[] getReversedRow(int layer) {
-        return reverseTable(getRow(layer));
+    @Override
+    public byte[] getReversedColumn(int column) {
+        byte[] result = new byte[size];
+        for (int i = 0, index = (size - 1) * size + column; i < size; i++, index -= size) {
+            result[i] = color[index];
+        }
+        return result;
     }
 
-    public AtomicInteger[] getReversedColumn(int layer) {
-        return reverseTable(getColumn(layer));
+    @Override
+    public void setRow(int row, byte[] newRow) {
+        System.arraycopy(newRow, 0, color, row * size, size);
     }
 
-    public void setRow(int row, AtomicInteger[] newRow) {
-        System.arraycopy(newRow, 0, color[row], 0, size);
+    @Override
+    public void setColumn(int column, byte[] newColumn) {
+        for (int i = 0, index = column; i < size; i++, index += size) {
+            color[index] = newColumn[i];
+        }
     }
 
-    public void setColumn(int column, AtomicInteger[] newColumn) {
-        for (int i = 0; i < size; i++) {
-             color[i][column].set(newColumn[i].get());
+    @Override
+    public void setColors(String description, int offset) {
+        for (int i = 0; i < size * size; i++) {
+            color[i] = (byte) (description.charAt(offset + i) - '0');
         }
     }
 
+    // Obraca ścianę w miejscu: każdy kwadrat z ćwiartki przesuwamy po cyklu czterech pozycji.
+    @Override
     public void rotateClockwise() {
-        AtomicInteger[][] result = new AtomicInteger[size][size];
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                result[j][size - i - 1] = new AtomicInteger(color[i][j].get());
+        int last = size - 1;
+        for (int i = 0; i < size / 2; i++) {
+            for (int j = i; j < last - i; j++) {
+                byte temp = color[i * size + j];
+                color[i * size + j] = color[(last - j) * size + i];
+                color[(last - j) * size + i] = color[(last - i) * size + last - j];
+                color[(last - i) * size + last - j] = color[j * size + last - i];
+                color[j * size + last - i] = temp;
             }
         }
-        color = result;
     }
 
+    @Override
     public void rotateCounterClockwise() {
-        AtomicInteger[][] result = new AtomicInteger[size][size];
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                result[size - j - 1][i] = new AtomicInteger(color[i][j].get());
+        int last = size - 1;
+        for (int i = 0; i < size / 2; i++) {
+            for (int j = i; j < last - i; j++) {
+                byte temp = color[i * size + j];
+                color[i * size + j] = color[j * size + last - i];
+                color[j * size + last - i] = color[(last - i) * size + last - j];
+                color[(last - i) * size + last - j] = color[(last - j) * size + i];
+                color[(last - j) * size + i] = temp;
             }
         }
-        color = result;
     }
 
     @Override
-    public String toString() {
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                result.append(color[i][j]);
-            }
+    public void describeTo(byte[] description, int offset) {
+        for (int i = 0; i < color.length; i++) {
+            description[offset + i] = (byte) ('0' + color[i]);
         }
-        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        byte[] result = new byte[color.length];
+        describeTo(result, 0);
+        return new String(result, StandardCharsets.ISO_8859_1);
     }
 
 }
@@ -0,0 +1,25 @@
+// author - Patryk Jędrzejczak
+
+// Stan kostki w formacie show() razem z numerem wersji, czyli liczbą obrotów wykonanych przed pokazaniem stanu.
+
+package concurrentcube;
+
+public final class CubeSnapshot {
+
+    private final String state;
+    private final long version;
+
+    public CubeSnapshot(String state, long version) {
+        this.state = state;
+        this.version = version;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+}
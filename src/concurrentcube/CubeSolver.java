@@ -0,0 +1,264 @@
+// author - Patryk Jędrzejczak
+
+// Układanie i mieszanie kostki dowolnego rozmiaru (przede wszystkim 3x3 i 4x4). Rozwiązanie jest szukane algorytmem
+// IDA* z oszacowaniem odległości z tablicy wzorców (PatternTable), więc zwracane rozwiązanie ma najmniejszą liczbę
+// ruchów - chyba że w tablicy wystąpiła kolizja skrótów (bardzo mało prawdopodobna), która może zawyżyć oszacowanie.
+// Wtedy rozwiązanie może być dłuższe od najkrótszego albo nie zostać znalezione w limicie ruchów.
+//
+// Ruchem jest obrót jednej warstwy o 90, 180 lub 270 stopni. Obroty warstw jednej grupy są przemienne, więc kolejne
+// ruchy jednej grupy przeszukujemy tylko w kolejności rosnących numerów warstw.
+//
+// Każdy próg IDA* jest przeszukiwany równolegle w puli ForkJoin: osobne zadanie dla każdego pierwszego ruchu.
+//
+// Rozwiązanie jest listą obrotów w konwencji Cube.rotate(side, layer). Obrót o 180 stopni to dwa takie same obroty,
+// a obrót o 270 stopni to obrót tej samej warstwy patrząc od przeciwnej ściany.
+//
+// Budowanie tablicy wzorców jest kosztowne, więc tablicę można zapisać do pliku (save()) i potem odwzorować ją
+// w pamięci (load()).
+
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CubeSolver {
+
+    // Przeszukiwanie w głąb poddrzewa jednego pierwszego ruchu, z progiem threshold.
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] start;
+        private final int firstMove;
+        private final int threshold;
+        private final AtomicReference<int[]> found;
+        private final byte[][] states;
+        private final int[] path;
+
+        private SearchTask(byte[] start, int firstMove, int threshold, AtomicReference<int[]> found) {
+            this.start = start;
+            this.firstMove = firstMove;
+            this.threshold = threshold;
+            this.found = found;
+            states = new byte[threshold + 1][start.length];
+            path = new int[threshold];
+        }
+
+        @Override
+        protected void compute() {
+            apply(start, firstMove, states[1]);
+            path[0] = firstMove;
+            if (search(1, firstMove)) {
+                found.compareAndSet(null, Arrays.copyOf(path, threshold));
+            }
+        }
+
+        private boolean search(int length, int lastMove) {
+            if (found.get() != null) {
+                return false; // Inne zadanie już znalazło rozwiązanie.
+            }
+
+            byte[] state = states[length];
+            int estimate = table.lookup(PatternTable.hash(state));
+            if (estimate == 0 && Arrays.equals(state, solved)) {
+                return length == threshold;
+            }
+            if (length + Math.max(estimate, 1) > threshold) {
+                return false;
+            }
+
+            for (int move = 0; move < moves.length; move++) {
+                if (canFollow(lastMove, move)) {
+                    apply(state, move, states[length + 1]);
+                    path[length] = move;
+                    if (search(length + 1, move)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private final int size;
+    private final PatternTable table;
+    private final ForkJoinPool pool;
+    private final byte[] solved;
+    // moves[m] - permutacja ruchu m (jak w CubeGeometry.permutation)
+    private final int[][] moves;
+    // grupa, numer warstwy patrząc od ściany grupy i liczba obrotów o 90 stopni ruchu m
+    private final int[] moveGroup;
+    private final int[] moveLayer;
+    private final int[] moveTurns;
+
+    // Buduje tablicę wzorców dla stanów w odległości co najwyżej tableDepth od ułożonej kostki. Głębokość 4 dla
+    // kostki 3x3 lub 4x4 oznacza kilkaset tysięcy stanów.
+    public CubeSolver(int size, int tableDepth) {
+        this(size, tableDepth, ForkJoinPool.commonPool());
+    }
+
+    public CubeSolver(int size, int tableDepth, ForkJoinPool pool) {
+        this(size, null, tableDepth, pool);
+    }
+
+    private CubeSolver(int size, PatternTable table, int tableDepth, ForkJoinPool pool) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.pool = pool;
+
+        int stickers = 6 * size * size;
+        solved = new byte[stickers];
+        for (int i = 0; i < stickers; i++) {
+            solved[i] = (byte) (i / (size * size));
+        }
+
+        int movesNum = 3 * size * 3;
+        moves = new int[movesNum][];
+        moveGroup = new int[movesNum];
+        moveLayer = new int[movesNum];
+        moveTurns = new int[movesNum];
+        int m = 0;
+        for (int group = 0; group < 3; group++) {
+            for (int layer = 0; layer < size; layer++) {
+                int[] quarter = CubeGeometry.permutation(size, group, layer);
+                int[] current = quarter;
+                for (int turns = 1; turns <= 3; turns++) {
+                    moves[m] = current;
+                    moveGroup[m] = group;
+                    moveLayer[m] = layer;
+                    moveTurns[m] = turns;
+                    m++;
+                    current = compose(current, quarter);
+                }
+            }
+        }
+
+        this.table = table != null ? table : PatternTable.build(size, tableDepth, moves, solved);
+    }
+
+    // Solver z tablicą wzorców zapisaną wcześniej przez save(), odwzorowaną w pamięci.
+    public static CubeSolver load(Path file) throws IOException {
+        PatternTable table = PatternTable.load(file);
+        return new CubeSolver(table.getSize(), table, table.getDepth(), ForkJoinPool.commonPool());
+    }
+
+    public void save(Path file) throws IOException {
+        table.save(file);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Permutacja równoważna wykonaniu first, a potem second.
+    private static int[] compose(int[] first, int[] second) {
+        int[] result = new int[first.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = first[second[i]];
+        }
+        return result;
+    }
+
+    private void apply(byte[] state, int move, byte[] result) {
+        int[] permutation = moves[move];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = state[permutation[i]];
+        }
+    }
+
+    // Po ruchu tej samej grupy dopuszczamy tylko ruchy warstw o większych numerach.
+    private boolean canFollow(int lastMove, int move) {
+        return moveGroup[lastMove] != moveGroup[move] || moveLayer[lastMove] < moveLayer[move];
+    }
+
+    // Rozwiązanie stanu kostki cube (pobranego przez show()) albo null, jeśli nie istnieje rozwiązanie o co najwyżej
+    // maxMoves ruchach.
+    public List<CubeMove> solve(Cube cube, int maxMoves) throws InterruptedException {
+        if (cube.getSize() != size) {
+            throw new IllegalArgumentException("solver is built for cubes of size " + size);
+        }
+        return solve(cube.show(), maxMoves);
+    }
+
+    // Rozwiązanie stanu w formacie show() albo null, jeśli nie istnieje rozwiązanie o co najwyżej maxMoves ruchach.
+    public List<CubeMove> solve(String state, int maxMoves) {
+        byte[] start = parse(state);
+        if (Arrays.equals(start, solved)) {
+            return new ArrayList<>();
+        }
+
+        int threshold = Math.max(1, table.lookup(PatternTable.hash(start)));
+        for (; threshold <= maxMoves; threshold++) {
+            AtomicReference<int[]> found = new AtomicReference<>();
+            List<SearchTask> tasks = new ArrayList<>();
+            for (int move = 0; move < moves.length; move++) {
+                tasks.add(new SearchTask(start, move, threshold, found));
+            }
+            pool.submit(() -> {
+                ForkJoinTask.invokeAll(tasks);
+            }).join();
+
+            if (found.get() != null) {
+                return toCubeMoves(found.get());
+            }
+        }
+        return null;
+    }
+
+    private byte[] parse(String state) {
+        if (state.length() != solved.length) {
+            throw new IllegalArgumentException("state does not match cube size");
+        }
+        byte[] result = new byte[state.length()];
+        for (int i = 0; i < result.length; i++) {
+            int color = state.charAt(i) - '0';
+            if (color < 0 || color > 5) {
+                throw new IllegalArgumentException("invalid color at position " + i);
+            }
+            result[i] = (byte) color;
+        }
+        return result;
+    }
+
+    private List<CubeMove> toCubeMoves(int[] path) {
+        List<CubeMove> result = new ArrayList<>();
+        for (int move : path) {
+            int side = moveGroup[move];
+            int layer = moveLayer[move];
+            if (moveTurns[move] == 3) {
+                result.add(new CubeMove(CubeGeometry.opposite(side), size - layer - 1));
+            }
+            else {
+                for (int i = 0; i < moveTurns[move]; i++) {
+                    result.add(new CubeMove(side, layer));
+                }
+            }
+        }
+        return result;
+    }
+
+    // Losowe pomieszanie z length ruchów (w tym samym sensie co w solve()), jako lista obrotów do wykonania.
+    public List<CubeMove> scramble(int length, Random random) {
+        int[] path = new int[length];
+        for (int i = 0; i < length; i++) {
+            int move;
+            do {
+                move = random.nextInt(moves.length);
+            } while (i > 0 && !canFollow(path[i - 1], move));
+            path[i] = move;
+        }
+        return toCubeMoves(path);
+    }
+
+}
@@ -0,0 +1,125 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class CubeSolverTest {
+
+    private static final Random random = new Random();
+
+    private Cube getBasicCube(int size) {
+        return new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    private static void apply(Cube cube, List<CubeMove> moves) throws InterruptedException {
+        for (CubeMove move : moves) {
+            move.applyTo(cube);
+        }
+    }
+
+    // Miesza kostkę scrambleLength ruchami i sprawdza, czy znalezione rozwiązanie ją układa.
+    private void scrambleAndSolve(CubeSolver solver, int scrambleLength) throws InterruptedException {
+        int size = solver.getSize();
+        String solved = getBasicCube(size).show();
+        Cube cube = getBasicCube(size);
+
+        List<CubeMove> scramble = solver.scramble(scrambleLength, random);
+        apply(cube, scramble);
+
+        List<CubeMove> solution = solver.solve(cube, scrambleLength);
+        assertNotNull(solution);
+        // Rozwiązanie ma najwyżej tyle ruchów co pomieszanie (pomijając mało prawdopodobne kolizje skrótów tablicy
+        // wzorców), a każdy ruch to najwyżej dwa obroty.
+        assertTrue(solution.size() <= 2 * scrambleLength);
+        apply(cube, solution);
+        assertEquals(solved, cube.show());
+    }
+
+    @Test
+    public void solvesScrambled3x3() throws InterruptedException {
+        CubeSolver solver = new CubeSolver(3, 4);
+        for (int i = 0; i < 10; i++) {
+            scrambleAndSolve(solver, 6);
+        }
+    }
+
+    @Test
+    public void solvesScrambled4x4() throws InterruptedException {
+        CubeSolver solver = new CubeSolver(4, 3);
+        for (int i = 0; i < 10; i++) {
+            scrambleAndSolve(solver, 5);
+        }
+    }
+
+    // Pojedynczy obrót jest rozwiązywany jednym ruchem, a zbyt mały limit ruchów daje null.
+    @Test
+    public void optimalSolutions() throws InterruptedException {
+        CubeSolver solver = new CubeSolver(3, 2);
+        for (int side = 0; side < 6; side++) {
+            for (int layer = 0; layer < 3; layer++) {
+                Cube cube = getBasicCube(3);
+                cube.rotate(side, layer);
+                List<CubeMove> solution = solver.solve(cube, 1);
+                assertNotNull(solution);
+                assertEquals(1, solution.size());
+                assertEquals(new CubeMove(CubeGeometry.opposite(side), 2 - layer), solution.get(0));
+            }
+        }
+
+        Cube cube = getBasicCube(3);
+        cube.rotate(0, 0);
+        cube.rotate(1, 0);
+        assertNull(solver.solve(cube, 1));
+        assertEquals(0, solver.solve(getBasicCube(3), 0).size());
+    }
+
+    // Tablica wzorców zapisana do pliku i odwzorowana w pamięci działa tak samo.
+    @Test
+    public void savedPatternTable() throws Exception {
+        Path file = Files.createTempFile("cube", ".patterns");
+        try {
+            new CubeSolver(3, 3).save(file);
+            CubeSolver loaded = CubeSolver.load(file);
+            assertEquals(3, loaded.getSize());
+            for (int i = 0; i < 5; i++) {
+                scrambleAndSolve(loaded, 5);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Nagłówek niezgodny z zawartością pliku jest odrzucany przed odwzorowaniem tablicy.
+    @Test
+    public void rejectsCorruptedPatternTable() throws IOException {
+        Path file = Files.createTempFile("cube", ".patterns");
+        try {
+            int[][] headers = {{3, 99, 4}, {0, 3, 4}, {3, 3, 6}, {3, 3, 1 << 20}};
+            for (int[] header : headers) {
+                ByteBuffer content = ByteBuffer.allocate(16 + 4 * Long.BYTES);
+                content.putInt(0x43554245).putInt(header[0]).putInt(header[1]).putInt(header[2]);
+                Files.write(file, content.array());
+                assertThrows(IOException.class, () -> CubeSolver.load(file));
+            }
+            Files.write(file, new byte[]{0x43, 0x55});
+            assertThrows(IOException.class, () -> CubeSolver.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
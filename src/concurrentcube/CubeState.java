@@ -0,0 +1,26 @@
+// author - Patryk Jędrzejczak
+
+// Sposób przechowywania stanu kostki. Cube zapewnia, że współbieżnie wykonywane są tylko obroty różnych warstw jednej
+// grupy, a odczyty kwadratu nie są współbieżne z obrotami warstw, które ten kwadrat przesuwają.
+
+package concurrentcube;
+
+interface CubeState {
+
+    // Obrót warstwy layer patrząc od ściany side, zgodnie z ruchem wskazówek zegara.
+    void rotate(int side, int layer);
+
+    // Kolor kwadratu w wierszu row i kolumnie column ściany face (numeracja jak w show()).
+    int colorAt(int face, int row, int column);
+
+    // Opis stanu w formacie show().
+    String describe();
+
+    // Ustawia stan według opisu w formacie show(). Wywoływane tylko przed udostępnieniem kostki innym wątkom.
+    void restore(String description);
+
+    // Zwalnia zasoby stanu (np. pamięć poza stertą). Po zamknięciu stan nie może być używany.
+    default void close() {
+    }
+
+}
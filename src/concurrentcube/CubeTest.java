@@ -3,18 +3,34 @@
 package concurrentcube;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 // Testy zrobiłem tak, żeby działały na students w rozsądnym czasie około 12 sekund. Na students mogłem stworzyć
@@ -685,4 +701,1217 @@ public class CubeTest {
         parameterizedInterruptionHandlingAndSecurityTest(100, 50);
     }
 
+    // Test subskrypcji obrotów. Zdarzenia odebrane z subskrypcji i zastosowane w kolejności odbioru na drugiej kostce
+    // dają ten sam stan co współbieżne obroty na pierwszej kostce. Każdy numer wersji pojawia się dokładnie raz.
+    @Test
+    public void rotationFeed() {
+        int size = 5;
+        int rotations = 2000;
+        int threadsNum = 10;
+        Cube cube = getBasicCube(size);
+        Cube replica = getBasicCube(size);
+        CubeFeed feed = cube.subscribe(1 << 6, CubeFeed.Overflow.BLOCK); // mały bufor, żeby sprawdzić czekanie
+
+        boolean[] versionSeen = new boolean[rotations * threadsNum + 1];
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < rotations * threadsNum; i++) {
+                    RotationEvent event = feed.take();
+                    versionSeen[(int) event.getVersion()] = true;
+                    replica.rotate(event.getSide(), event.getLayer());
+                }
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        consumer.start();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < rotations; j++) {
+                        cube.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+        }
+        executeThreads(threads, threadsNum);
+
+        try {
+            consumer.join();
+            assertEquals(cube.show(), replica.show());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+
+        assertEquals(rotations * threadsNum, cube.getVersion());
+        for (int v = 1; v <= rotations * threadsNum; v++) {
+            assertTrue(versionSeen[v]);
+        }
+        assertFalse(feed.isOverflowed());
+    }
+
+    // Przy polityce DROP pełny bufor nie blokuje obrotów, a subskrypcja zostaje oznaczona jako przepełniona.
+    @Test
+    public void rotationFeedOverflow() {
+        Cube cube = getBasicCube(3);
+        CubeFeed feed = cube.subscribe(4, CubeFeed.Overflow.DROP);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                cube.rotate(i % 6, i % 3);
+            }
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+
+        assertTrue(feed.isOverflowed());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, feed.poll().getVersion());
+        }
+        assertEquals(null, feed.poll());
+
+        feed.close();
+        try {
+            cube.rotate(0, 0);
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+        assertEquals(null, feed.poll());
+    }
+
+    // Kostka przechowująca stan jako listę obrotów daje te same stany co zwykła kostka, także po zamianie na zwykły
+    // stan, gdy lista się przepełni.
+    @Test
+    public void sparseStateCorrectness() {
+        for (int size = 1; size < 8; size++) {
+            Cube dense = getBasicCube(size);
+            Cube sparse = new Cube.Builder(size).sparseState(50).build();
+
+            try {
+                for (int i = 0; i < 200; i++) {
+                    int side = random.nextInt(6);
+                    int layer = random.nextInt(size);
+                    dense.rotate(side, layer);
+                    sparse.rotate(side, layer);
+                    if (i % 10 == 0) {
+                        assertEquals(dense.show(), sparse.show());
+                    }
+                }
+                assertEquals(dense.show(), sparse.show());
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        }
+    }
+
+    // Współbieżne obroty na kostce z listą obrotów, w trakcie których lista się przepełnia. Wynik porównujemy
+    // z sekwencyjnym wykonaniem obrotów w kolejności wywołań beforeRotation, jak w randomConcurrentRotations.
+    @Test
+    public void sparseStateConcurrentRotations() {
+        int size = 6;
+        int threadsNum = 10;
+        int rotations = 300;
+
+        List<Pair<Integer, Integer>> pairs = Collections.synchronizedList(new ArrayList<>());
+        Cube sparse = new Cube.Builder(size)
+                .beforeRotation((x, y) -> pairs.add(new Pair<>(x, y)))
+                .sparseState(1000)
+                .build();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < rotations; j++) {
+                        sparse.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+        }
+        executeThreads(threads, threadsNum);
+
+        Cube sequential = getBasicCube(size);
+        try {
+            for (Pair<Integer, Integer> pair : pairs) {
+                sequential.rotate(pair.st, pair.nd);
+            }
+            assertEquals(sequential.show(), sparse.show());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Odczyty pojedynczych kwadratów, wierszy i kolumn zgadzają się z show() po losowych obrotach.
+    @Test
+    public void stickerQueries() {
+        for (int size = 1; size < 7; size++) {
+            Cube cube = getBasicCube(size);
+            byte[] line = new byte[size];
+
+            try {
+                for (int i = 0; i < 100; i++) {
+                    cube.rotate(random.nextInt(6), random.nextInt(size));
+                }
+                String state = cube.show();
+
+                for (int face = 0; face < 6; face++) {
+                    for (int row = 0; row < size; row++) {
+                        cube.readRow(face, row, line);
+                        for (int column = 0; column < size; column++) {
+                            int expected = state.charAt((face * size + row) * size + column) - '0';
+                            assertEquals(expected, cube.colorAt(face, row, column));
+                            assertEquals(expected, line[column]);
+                        }
+                    }
+                    for (int column = 0; column < size; column++) {
+                        cube.readColumn(face, column, line);
+                        for (int row = 0; row < size; row++) {
+                            assertEquals(state.charAt((face * size + row) * size + column) - '0', line[row]);
+                        }
+                    }
+                }
+
+                StringBuilder visited = new StringBuilder();
+                cube.forEachSticker((face, row, column, color) -> visited.append(color));
+                assertEquals(state, visited.toString());
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        }
+    }
+
+    // Odczyt wiersza wykonuje się współbieżnie z obrotem innej warstwy tej samej grupy. Obrót w beforeRotation czeka
+    // na zakończenie odczytu, więc jeśli odczyt wymagałby wyłączności względem całej kostki, czekanie by się nie
+    // powiodło. Dodatkowo obroty innych warstw nie zmieniają odczytywanego wiersza.
+    @Test
+    public void stickerQueriesConcurrentWithRotations() {
+        int size = 5;
+        CountDownLatch readDone = new CountDownLatch(1);
+        AtomicInteger overlapped = new AtomicInteger();
+
+        Cube cube = new Cube.Builder(size)
+                .beforeRotation((side, layer) -> {
+                    try {
+                        if (readDone.await(5, TimeUnit.SECONDS)) {
+                            overlapped.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        System.err.println("test interrupted");
+                    }
+                })
+                .build();
+
+        Thread rotating = new Thread(() -> {
+            try {
+                cube.rotate(0, 3);
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        rotating.start();
+
+        try {
+            byte[] row = new byte[size];
+            cube.readRow(2, 1, row); // Wiersz 1 przesuwa tylko warstwa 1 grupy 0.
+            readDone.countDown();
+            rotating.join();
+
+            for (int column = 0; column < size; column++) {
+                assertEquals(2, row[column]);
+            }
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+
+        assertEquals(1, overlapped.get());
+    }
+
+    // Częściowe widoki zgadzają się z odpowiednimi fragmentami show().
+    @Test
+    public void partialViews() {
+        int size = 4;
+        Cube cube = getBasicCube(size);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                cube.rotate(random.nextInt(6), random.nextInt(size));
+            }
+            String state = cube.show();
+
+            for (int mask = 1; mask < 1 << 6; mask++) {
+                StringBuilder expected = new StringBuilder();
+                for (int face = 0; face < 6; face++) {
+                    if ((mask & (1 << face)) != 0) {
+                        expected.append(state, face * size * size, (face + 1) * size * size);
+                    }
+                }
+                assertEquals(expected.toString(), cube.showFaces(mask));
+            }
+
+            for (int i = 0; i < 100; i++) {
+                int face = random.nextInt(6);
+                int firstRow = random.nextInt(size);
+                int firstColumn = random.nextInt(size);
+                int rows = 1 + random.nextInt(size - firstRow);
+                int columns = 1 + random.nextInt(size - firstColumn);
+
+                StringBuilder expected = new StringBuilder();
+                for (int row = firstRow; row < firstRow + rows; row++) {
+                    int start = (face * size + row) * size + firstColumn;
+                    expected.append(state, start, start + columns);
+                }
+                assertEquals(expected.toString(), cube.showRegion(face, firstRow, firstColumn, rows, columns));
+            }
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Widok jednej ściany wykonuje się współbieżnie z obrotem wewnętrznej warstwy grupy tej ściany (test podobny do
+    // stickerQueriesConcurrentWithRotations).
+    @Test
+    public void faceViewConcurrentWithRotations() {
+        int size = 4;
+        CountDownLatch viewDone = new CountDownLatch(1);
+        AtomicInteger overlapped = new AtomicInteger();
+
+        Cube cube = new Cube.Builder(size)
+                .beforeRotation((side, layer) -> {
+                    try {
+                        if (viewDone.await(5, TimeUnit.SECONDS)) {
+                            overlapped.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        System.err.println("test interrupted");
+                    }
+                })
+                .build();
+
+        Thread rotating = new Thread(() -> {
+            try {
+                cube.rotate(4, 1); // wewnętrzna warstwa grupy ściany przedniej
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        rotating.start();
+
+        try {
+            assertEquals("2222222222222222", cube.showFaces(1 << 2));
+            viewDone.countDown();
+            rotating.join();
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+
+        assertEquals(1, overlapped.get());
+    }
+
+    // Obroty dużej kostki; kolory porównujemy z kostką z listą obrotów, która liczy je niezależnie (CubeGeometry).
+    @Test
+    public void largeCubeRotations() {
+        int size = 1000;
+        Cube dense = getBasicCube(size);
+        Cube sparse = new Cube.Builder(size).sparseState(100).build();
+
+        try {
+            for (int i = 0; i < 60; i++) {
+                int side = random.nextInt(6);
+                int layer = random.nextInt(4) < 2 ? (random.nextBoolean() ? 0 : size - 1) : random.nextInt(size);
+                dense.rotate(side, layer);
+                sparse.rotate(side, layer);
+            }
+
+            for (int i = 0; i < 2000; i++) {
+                int face = random.nextInt(6);
+                int row = random.nextInt(size);
+                int column = random.nextInt(size);
+                assertEquals(sparse.colorAt(face, row, column), dense.colorAt(face, row, column));
+            }
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Stan poza stertą, także podzielony na wiele małych fragmentów, zachowuje się jak zwykły stan.
+    @Test
+    public void offHeapStateCorrectness() throws IOException {
+        for (int size = 1; size < 8; size++) {
+            DenseCubeState heap = new DenseCubeState(size);
+            OffHeapCubeState direct = OffHeapCubeState.create(size, null);
+            OffHeapCubeState chunked = OffHeapCubeState.create(size, null, 2 * size);
+
+            for (int i = 0; i < 200; i++) {
+                int side = random.nextInt(6);
+                int layer = random.nextInt(size);
+                heap.rotate(side, layer);
+                direct.rotate(side, layer);
+                chunked.rotate(side, layer);
+            }
+            assertEquals(heap.describe(), direct.describe());
+            assertEquals(heap.describe(), chunked.describe());
+
+            chunked.close();
+            assertThrows(IllegalStateException.class, () -> chunked.rotate(0, 0));
+        }
+    }
+
+    // Kostka w pliku odwzorowanym w pamięci przy współbieżnych obrotach.
+    @Test
+    public void fileBackedCube() throws IOException {
+        int size = 5;
+        Path file = Files.createTempFile("cube", ".state");
+
+        try (Cube cube = new Cube.Builder(size).offHeapState(file).build()) {
+            Cube reference = getBasicCube(size);
+            List<Pair<Integer, Integer>> rotations = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                rotations.add(new Pair<>(random.nextInt(6), random.nextInt(size)));
+            }
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 25; i++) {
+                            cube.rotate(0, random.nextInt(size));
+                            cube.rotate(5, random.nextInt(size));
+                        }
+                    } catch (InterruptedException e) {
+                        System.err.println("test interrupted");
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // Obroty względem ścian 0 i 5 nie zmieniają ścian 0 i 5, tylko je obracają, a środek kostki 5x5 zostaje.
+            assertEquals('0', cube.show().charAt(12));
+            assertEquals(6 * size * size, Files.size(file));
+
+            for (Pair<Integer, Integer> rotation : rotations) {
+                reference.rotate(rotation.st, rotation.nd);
+            }
+            cube.restore(new CubeSnapshot(getBasicCube(size).show(), 0));
+            for (Pair<Integer, Integer> rotation : rotations) {
+                cube.rotate(rotation.st, rotation.nd);
+            }
+            assertEquals(reference.show(), cube.show());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // forEachMoved odwiedza każdą pozycję, którą obrót zmienia.
+    @Test
+    public void movedPositions() {
+        for (int size = 1; size < 6; size++) {
+            for (int side = 0; side < 6; side++) {
+                for (int layer = 0; layer < size; layer++) {
+                    Set<Long> visited = new HashSet<>();
+                    CubeGeometry.forEachMoved(size, side, layer,
+                            (face, row, column) -> visited.add(CubeGeometry.position(face, row, column)));
+
+                    for (int face = 0; face < 6; face++) {
+                        for (int row = 0; row < size; row++) {
+                            for (int column = 0; column < size; column++) {
+                                long position = CubeGeometry.position(face, row, column);
+                                if (CubeGeometry.sourceOf(size, side, layer, face, row, column) != position) {
+                                    assertTrue(visited.contains(position));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Cube getHashingCube(int size, String state) {
+        Cube cube = new Cube.Builder(size).canonicalFingerprint().build();
+        cube.restore(new CubeSnapshot(state, 0));
+        return cube;
+    }
+
+    // Skrót aktualizowany przy współbieżnych obrotach jest równy skrótowi policzonemu od nowa.
+    @Test
+    public void stateHashUpdates() {
+        int size = 5;
+        int threadsNum = 8;
+        Cube cube = new Cube.Builder(size).canonicalFingerprint().build();
+        long solvedHash = cube.stateHash();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 200; j++) {
+                        cube.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+        }
+        executeThreads(threads, threadsNum);
+
+        try {
+            Cube recomputed = getHashingCube(size, cube.show());
+            assertEquals(recomputed.stateHash(), cube.stateHash());
+            assertEquals(recomputed.canonicalFingerprint(), cube.canonicalFingerprint());
+            assertNotEquals(solvedHash, cube.stateHash());
+
+            for (int i = 0; i < 4; i++) {
+                cube.rotate(2, 1);
+            }
+            assertEquals(recomputed.stateHash(), cube.stateHash());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Stan obrócony jako cała kostka, z kolorami przenumerowanymi tak, żeby ułożona kostka przechodziła na ułożoną.
+    private String wholeCubeRotated(int size, String state, int side) {
+        int[] faceOf = new int[6];
+        for (int face = 0; face < 6; face++) {
+            faceOf[CubeGeometry.face(CubeGeometry.wholeCubeSourceOf(size, side, face, 0, 0))] = face;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int face = 0; face < 6; face++) {
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    long source = CubeGeometry.wholeCubeSourceOf(size, side, face, row, column);
+                    int color = state.charAt(CubeGeometry.index(size, CubeGeometry.face(source),
+                            CubeGeometry.row(source), CubeGeometry.column(source))) - '0';
+                    result.append(faceOf[color]);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    // Stany symetryczne mają ten sam odcisk kanoniczny, ale różne skróty.
+    @Test
+    public void canonicalFingerprintSymmetry() {
+        for (int size = 2; size < 5; size++) {
+            Cube cube = getBasicCube(size);
+            try {
+                for (int i = 0; i < 50; i++) {
+                    cube.rotate(random.nextInt(6), random.nextInt(size));
+                }
+                String state = cube.show();
+                Cube original = getHashingCube(size, state);
+
+                String rotated = state;
+                for (int i = 0; i < 10; i++) {
+                    rotated = wholeCubeRotated(size, rotated, random.nextInt(2));
+                    Cube symmetric = getHashingCube(size, rotated);
+                    assertEquals(original.canonicalFingerprint(), symmetric.canonicalFingerprint());
+                    if (!rotated.equals(state)) {
+                        assertNotEquals(original.stateHash(), symmetric.stateHash());
+                    }
+                }
+
+                String solved = getBasicCube(size).show();
+                assertEquals(solved, wholeCubeRotated(size, solved, 0));
+                assertEquals(solved, wholeCubeRotated(size, solved, 1));
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        }
+    }
+
+    // Kolejne show() bez obrotów pomiędzy zwracają zapamiętany stan bez protokołu, a po obrocie stan jest liczony
+    // od nowa. Najdawniej używane stany są usuwane po przekroczeniu budżetu.
+    @Test
+    public void showCache() {
+        int size = 3;
+        AtomicInteger shows = new AtomicInteger();
+        Cube cube = new Cube.Builder(size)
+                .beforeShowing(shows::incrementAndGet)
+                .showCache(2 * 6 * size * size)
+                .build();
+
+        try {
+            String first = cube.show();
+            assertSame(first, cube.show());
+            assertEquals(1, shows.get());
+
+            cube.rotate(0, 0);
+            CubeSnapshot second = cube.snapshot();
+            assertEquals(1, second.getVersion());
+            assertNotEquals(first, second.getState());
+            assertSame(second, cube.snapshot());
+            assertEquals(2, shows.get());
+
+            cube.rotate(1, 1);
+            CubeSnapshot third = cube.snapshot();
+            assertNull(cube.cachedSnapshot(0));
+            assertSame(second, cube.cachedSnapshot(1));
+            assertSame(third, cube.cachedSnapshot(2));
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Przy współbieżnych obrotach i pokazywaniu stanów z pamięcią podręczną każda wersja ma jeden stan.
+    @Test
+    public void showCacheConcurrent() {
+        int size = 4;
+        int threadsNum = 8;
+        Cube cube = new Cube.Builder(size).showCache(1 << 16).build();
+        Map<Long, String> states = new ConcurrentHashMap<>();
+        AtomicInteger mismatches = new AtomicInteger();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            boolean rotating = i % 2 == 0;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 300; j++) {
+                        if (rotating) {
+                            cube.rotate(random.nextInt(6), random.nextInt(size));
+                        }
+                        else {
+                            CubeSnapshot snapshot = cube.snapshot();
+                            String known = states.putIfAbsent(snapshot.getVersion(), snapshot.getState());
+                            if (known != null && !known.equals(snapshot.getState())) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+        }
+        executeThreads(threads, threadsNum);
+
+        assertEquals(0, mismatches.get());
+        checkNumberOfColors(cube, size);
+    }
+
+    // Odtwarzanie i przywracanie wcześniejszych stanów z historii obrotów.
+    @Test
+    public void historyTimeTravel() {
+        int size = 4;
+        int rotations = 60;
+        Cube cube = new Cube.Builder(size).history(100, 10).stateHashing().build();
+        String[] states = new String[rotations + 1];
+
+        try {
+            states[0] = cube.show();
+            for (int i = 1; i <= rotations; i++) {
+                cube.rotate(random.nextInt(6), random.nextInt(size));
+                states[i] = i % 7 == 0 ? cube.show() : cube.stateAt(i).getState();
+            }
+            for (int i = 0; i <= rotations; i++) {
+                assertEquals(states[i], cube.stateAt(i).getState());
+            }
+
+            assertEquals(55, cube.undo(5));
+            assertEquals(states[55], cube.show());
+            assertEquals(58, cube.redo(3));
+            assertEquals(states[58], cube.show());
+            assertEquals(20, cube.revertTo(20));
+            assertEquals(states[20], cube.show());
+            assertEquals(states[45], cube.stateAt(45).getState());
+            assertEquals(60, cube.redo(40));
+            assertEquals(states[60], cube.show());
+            assertEquals(getHashingCube(size, states[60]).stateHash(), cube.stateHash());
+
+            cube.revertTo(30);
+            cube.rotate(0, 0);
+            assertEquals(31, cube.getVersion());
+            assertThrows(IllegalArgumentException.class, () -> cube.redo(1));
+            assertThrows(IllegalArgumentException.class, () -> cube.stateAt(32));
+            assertEquals(states[30], cube.stateAt(30).getState());
+            assertEquals(states[10], cube.stateAt(10).getState());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Historia obejmuje tylko ostatnie capacity obrotów.
+    @Test
+    public void historyWindow() {
+        int size = 3;
+        Cube cube = new Cube.Builder(size).history(10, 4).build();
+
+        try {
+            for (int i = 0; i < 30; i++) {
+                cube.rotate(random.nextInt(6), random.nextInt(size));
+            }
+            assertThrows(IllegalArgumentException.class, () -> cube.stateAt(19));
+            assertThrows(IllegalArgumentException.class, () -> cube.undo(11));
+            assertEquals(20, cube.undo(10));
+            assertThrows(IllegalStateException.class, () -> getBasicCube(size).undo(1));
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Cofanie historii współbieżnie z obrotami i pokazywaniem stanu.
+    @Test
+    public void historyConcurrent() {
+        int size = 4;
+        int threadsNum = 6;
+        Cube cube = new Cube.Builder(size).history(1000, 16).showCache(1 << 16).build();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            int number = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 200; j++) {
+                        if (number == 0 && j % 10 == 0) {
+                            long version = cube.getVersion();
+                            if (version >= 3) {
+                                try {
+                                    cube.undo(3);
+                                } catch (IllegalArgumentException e) {
+                                    // Historia zmieniła się pomiędzy odczytem wersji a cofnięciem.
+                                }
+                            }
+                        }
+                        else if (number == 1) {
+                            cube.show();
+                            try {
+                                cube.stateAt(Math.max(0, cube.getVersion() - 5));
+                            } catch (IllegalArgumentException e) {
+                                // Wersja zniknęła z historii po cofnięciu i nowych obrotach.
+                            }
+                        }
+                        else {
+                            cube.rotate(random.nextInt(6), random.nextInt(size));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+        }
+        executeThreads(threads, threadsNum);
+
+        checkNumberOfColors(cube, size);
+        try {
+            assertEquals(cube.show(), cube.stateAt(cube.getVersion()).getState());
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+    // Akcje obrotów typu IntRotationListener dostają numery ściany i warstwy bez opakowywania.
+    @Test
+    public void intRotationListeners() {
+        int size = 300;
+        long[] sums = new long[2];
+        Cube cube = new Cube.Builder(size)
+                .beforeRotation((side, layer) -> sums[0] += side * size + layer)
+                .afterRotation((side, layer) -> sums[1] += side * size + layer)
+                .build();
+
+        long expected = 0;
+        try {
+            for (int i = 0; i < 100; i++) {
+                int side = random.nextInt(6);
+                int layer = 128 + random.nextInt(size - 128);
+                cube.rotate(side, layer);
+                expected += side * size + layer;
+            }
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+
+        assertEquals(expected, sums[0]);
+        assertEquals(expected, sums[1]);
+    }
+
+
+    // Asynchroniczne akcje kolejnych obrotów jednego wątku są wywoływane w kolejności tych obrotów.
+    @Test
+    public void asyncCallbacksOrder() {
+        int size = 5;
+        List<Integer> seen = new ArrayList<>();
+        Cube cube = new Cube.Builder(size)
+                .afterRotation((side, layer) -> seen.add(side * size + layer))
+                .asyncCallbacks(8)
+                .build();
+
+        List<Integer> expected = new ArrayList<>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                int side = random.nextInt(6);
+                int layer = random.nextInt(size);
+                cube.rotate(side, layer);
+                expected.add(side * size + layer);
+            }
+            cube.awaitCallbacks();
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+        cube.close();
+
+        assertEquals(expected, seen);
+    }
+
+    // Wolna akcja afterRotation nie blokuje obrotów, dopóki mieści się w kolejce, a przy pełnej kolejce je wstrzymuje.
+    @Test
+    public void asyncCallbacksBackpressure() {
+        int size = 3;
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Cube cube = new Cube.Builder(size)
+                .afterRotation((side, layer) -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    calls.incrementAndGet();
+                })
+                .asyncCallbacks(2)
+                .build();
+
+        Thread rotating = new Thread(() -> {
+            try {
+                for (int i = 0; i < 10; i++) {
+                    cube.rotate(0, 0);
+                }
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        rotating.start();
+        try {
+            Thread.sleep(100);
+            // Jedna akcja jest wywoływana, dwie czekają w kolejce, a obrót, który nie zmieścił się w kolejce,
+            // trzyma warstwę, więc kolejne obroty nie mogą się zacząć.
+            assertEquals(0, calls.get());
+            assertTrue(cube.getVersion() <= 4);
+            release.countDown();
+            rotating.join();
+            cube.awaitCallbacks();
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+        cube.close();
+
+        assertEquals(10, calls.get());
+        assertEquals(10, cube.getVersion());
+    }
+
+
+    // tryRotate() i tryShow() rezygnują, gdy warstwa lub kostka jest zajęta, a obroty innych warstw grupy przechodzą.
+    @Test
+    public void tryRotateAndTryShow() {
+        int size = 4;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Cube cube = new Cube(size,
+                (side, layer) -> {
+                    if (side == 0 && layer == 0) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                },
+                (side, layer) -> {},
+                () -> {},
+                () -> {});
+
+        Thread rotating = new Thread(() -> {
+            try {
+                cube.rotate(0, 0);
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        rotating.start();
+        try {
+            started.await();
+            assertFalse(cube.tryRotate(0, 0));
+            assertFalse(cube.tryRotate(5, size - 1, 20, TimeUnit.MILLISECONDS));
+            assertFalse(cube.tryRotate(1, 0));
+            assertTrue(cube.tryRotate(0, 1));
+            assertTrue(cube.tryRotate(5, 0, 20, TimeUnit.MILLISECONDS));
+            assertNull(cube.tryShow());
+            assertNull(cube.tryShow(20, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            rotating.join();
+            assertEquals(cube.show(), cube.tryShow(1, TimeUnit.SECONDS));
+            assertTrue(cube.tryRotate(1, 0));
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+        assertEquals(4, cube.getVersion());
+    }
+
+    // Wątki rezygnujące z czekania nie psują kaskadowego wpuszczania: wszystkie operacje się kończą, a kostka
+    // pozostaje spójna.
+    @Test
+    public void timedOutWaitersDoNotBreakCascade() {
+        int size = 5;
+        int threadsNum = 32;
+        AtomicInteger rotations = new AtomicInteger();
+        Cube cube = new Cube(size,
+                (side, layer) -> {},
+                (side, layer) -> rotations.incrementAndGet(),
+                () -> {},
+                () -> {});
+
+        assertTimeout(Duration.ofSeconds(20), () -> {
+            Thread[] threads = new Thread[threadsNum];
+            for (int i = 0; i < threadsNum; i++) {
+                threads[i] = new Thread(() -> {
+                    Random threadRandom = new Random();
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            int number = threadRandom.nextInt(6);
+                            long timeout = threadRandom.nextInt(50);
+                            if (number == 0) {
+                                cube.tryShow(timeout, TimeUnit.MICROSECONDS);
+                            }
+                            else if (number == 1) {
+                                cube.show();
+                            }
+                            else if (number == 2) {
+                                cube.rotate(threadRandom.nextInt(6), threadRandom.nextInt(size));
+                            }
+                            else {
+                                cube.tryRotate(threadRandom.nextInt(6), threadRandom.nextInt(size), timeout,
+                                        TimeUnit.MICROSECONDS);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        System.err.println("test interrupted");
+                    }
+                });
+            }
+            executeThreads(threads, threadsNum);
+
+            assertEquals(rotations.get(), cube.getVersion());
+            checkNumberOfColors(cube, size);
+            assertTrue(cube.tryRotate(0, 0));
+            assertNotNull(cube.tryShow());
+        });
+    }
+
+
+    // Kostka z adaptacyjnym czekaniem zachowuje bezpieczeństwo: w każdej chwili pracuje tylko jedna grupa, a każdą
+    // warstwę obraca najwyżej jeden wątek. Pokazania i obroty przerwanych wątków mieszają się z resztą.
+    @Test
+    public void adaptiveSpinningSafety() {
+        int size = 3;
+        int threadsNum = 16;
+        // working[g * size + l] - liczba wątków obracających warstwę l patrząc od ściany g < 3
+        AtomicInteger[] working = new AtomicInteger[3 * size];
+        for (int i = 0; i < working.length; i++) {
+            working[i] = new AtomicInteger();
+        }
+        AtomicInteger[] workingGroups = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger showing = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        Cube cube = new Cube.Builder(size)
+                .beforeRotation((side, layer) -> {
+                    int group = side == 0 || side == 5 ? 0 : side == 1 || side == 3 ? 1 : 2;
+                    int dualLayer = side < 3 ? layer : size - layer - 1;
+                    workingGroups[group].incrementAndGet();
+                    if (working[group * size + dualLayer].incrementAndGet() != 1 || showing.get() != 0 ||
+                            workingGroups[(group + 1) % 3].get() != 0 || workingGroups[(group + 2) % 3].get() != 0) {
+                        violations.incrementAndGet();
+                    }
+                })
+                .afterRotation((side, layer) -> {
+                    int group = side == 0 || side == 5 ? 0 : side == 1 || side == 3 ? 1 : 2;
+                    int dualLayer = side < 3 ? layer : size - layer - 1;
+                    working[group * size + dualLayer].decrementAndGet();
+                    workingGroups[group].decrementAndGet();
+                })
+                .beforeShowing(() -> {
+                    showing.incrementAndGet();
+                    for (AtomicInteger group : workingGroups) {
+                        if (group.get() != 0) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                })
+                .afterShowing(showing::decrementAndGet)
+                .adaptiveSpinning()
+                .build();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int i = 0; i < threadsNum; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 2000; j++) {
+                        randomOperation(cube, size);
+                    }
+                } catch (InterruptedException e) {
+                    // Przerwany wątek kończy pracę.
+                }
+            });
+        }
+        executeAndInterruptThreads(threads, threadsNum);
+
+        assertEquals(0, violations.get());
+        checkNumberOfColors(cube, size);
+    }
+
+
+    // Kolejność wpuszczania grup 1, 2 i pokazującej, które czekają na zakończenie obrotu grupy 0.
+    private List<Integer> admissionOrder(Cube.Builder builder, CountDownLatch started, CountDownLatch release,
+                                         List<Integer> order) throws InterruptedException {
+        Cube cube = builder.build();
+        Thread[] threads = {
+            new Thread(() -> {
+                try {
+                    cube.rotate(0, 0);
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }),
+            new Thread(() -> {
+                try {
+                    cube.rotate(1, 0);
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }),
+            new Thread(() -> {
+                try {
+                    cube.rotate(2, 0);
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }),
+            new Thread(() -> {
+                try {
+                    cube.show();
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            })
+        };
+        threads[0].start();
+        started.await();
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].start();
+            while (threads[i].getState() != Thread.State.WAITING) { // Czekamy, aż wątek zaśnie w protokole.
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(3, cube.rotationLatency().getCount());
+        assertEquals(1, cube.showLatency().getCount());
+        assertTrue(cube.rotationLatency().getMaxNanos() >= cube.rotationLatency().getPercentileNanos(0.5));
+        return order;
+    }
+
+    private Cube.Builder orderRecordingBuilder(CountDownLatch started, CountDownLatch release, List<Integer> order) {
+        return new Cube.Builder(3)
+                .beforeRotation((side, layer) -> {
+                    if (side == 0) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    else {
+                        order.add(side);
+                    }
+                })
+                .beforeShowing(() -> order.add(-1))
+                .latencyMetrics();
+    }
+
+    // Bez klas priorytetów grupy są wpuszczane cyklicznie, a z klasami najpierw wpuszczana jest klasa
+    // uprzywilejowana, ale najwyżej weight razy z rzędu, gdy czeka druga klasa.
+    @Test
+    public void priorityAdmission() {
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(List.of(1, 2, -1),
+                    admissionOrder(orderRecordingBuilder(started, release, order), started, release, order));
+
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            order = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(List.of(-1, 1, 2), admissionOrder(
+                    orderRecordingBuilder(started, release, order).priority(true, 1), started, release, order));
+
+            // Pokazanie czeka na kolejne obroty najwyżej raz.
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            order = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(List.of(1, -1, 2), admissionOrder(
+                    orderRecordingBuilder(started, release, order).priority(false, 1), started, release, order));
+
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            order = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(List.of(1, 2, -1), admissionOrder(
+                    orderRecordingBuilder(started, release, order).priority(false, 2), started, release, order));
+        } catch (InterruptedException e) {
+            System.err.println("test interrupted");
+        }
+    }
+
+
+    // Aktywnie czekające wątki nie wyprzedzają wątku uśpionego na semaforze, nawet gdy pozwolenie jest dostępne.
+    // Uśpiony wątek czeka na dwa pozwolenia, więc jedno pozwolenie zostaje dostępne, a wątek zostaje w kolejce.
+    @Test
+    public void spinnersDoNotOvertakeParkedWaiter() throws InterruptedException {
+        Semaphore sem = new Semaphore(0, true);
+        AdaptiveSpinner spinner = new AdaptiveSpinner();
+        Thread parked = new Thread(() -> sem.acquireUninterruptibly(2));
+        parked.start();
+        while (parked.getState() != Thread.State.WAITING) { // Czekamy, aż wątek zaśnie w kolejce semafora.
+            Thread.sleep(1);
+        }
+
+        sem.release();
+        AtomicInteger acquired = new AtomicInteger();
+        Thread[] spinners = new Thread[4];
+        for (int i = 0; i < spinners.length; i++) {
+            spinners[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    if (spinner.tryAcquire(sem)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            spinners[i].start();
+        }
+        for (Thread thread : spinners) {
+            thread.join();
+        }
+        assertEquals(0, acquired.get());
+        assertEquals(1, sem.availablePermits());
+
+        sem.release();
+        parked.join();
+        assertEquals(0, sem.availablePermits());
+        // Gdy nikt nie śpi na semaforze, aktywne czekanie bierze pozwolenie.
+        sem.release();
+        assertTrue(spinner.tryAcquire(sem));
+    }
+
+    // Operacja, która rzuciła wyjątek na zamkniętej kostce, kończy protokół, więc kolejne operacje innych wątków
+    // nie czekają na nią, tylko też rzucają wyjątek.
+    @Test
+    public void closedCubeDoesNotBlockOtherThreads() throws Exception {
+        Cube cube = new Cube.Builder(3).offHeapState().build();
+        cube.close();
+
+        assertThrows(IllegalStateException.class, () -> cube.rotate(0, 0));
+        assertThrows(IllegalStateException.class, () -> cube.tryRotate(0, 0));
+        assertThrows(IllegalStateException.class, () -> cube.tryShow());
+        assertThrows(IllegalStateException.class, () -> cube.colorAt(0, 0, 0));
+    }
+
+    // Po cofnięciu historii i nowych obrotach kostka wraca do tej samej wersji, ale w innym stanie, więc show() nie
+    // może zwrócić stanu zapamiętanego przed cofnięciem.
+    @Test
+    public void showCacheAfterTravelBackAndRotate() throws InterruptedException {
+        int size = 3;
+        Cube cube = new Cube.Builder(size).history(10, 2).showCache(1 << 16).build();
+        Cube expected = getBasicCube(size);
+
+        cube.rotate(0, 0);
+        CubeSnapshot before = cube.snapshot();
+        assertEquals(1, before.getVersion());
+
+        assertEquals(0, cube.undo(1));
+        cube.rotate(1, 0);
+        expected.rotate(1, 0);
+        CubeSnapshot after = cube.snapshot();
+        assertEquals(1, after.getVersion());
+        assertEquals(expected.show(), after.getState());
+        assertNotEquals(before.getState(), after.getState());
+        assertEquals(after.getState(), cube.cachedSnapshot(1).getState());
+    }
+
+    // Punkt kontrolny z show() sprzed zawinięcia bufora historii nie może być użyty, bo obroty od niego zostały już
+    // nadpisane nowszymi.
+    @Test
+    public void historyIgnoresCheckpointsBeforeWindow() throws InterruptedException {
+        int size = 3;
+        for (int repeat = 0; repeat < 50; repeat++) {
+            Cube cube = new Cube.Builder(size).history(10, 1).build();
+            Cube reference = getBasicCube(size);
+            String[] states = new String[17];
+            states[0] = reference.show();
+            for (int i = 1; i <= 16; i++) {
+                int side = random.nextInt(6);
+                int layer = random.nextInt(size);
+                cube.rotate(side, layer);
+                reference.rotate(side, layer);
+                states[i] = reference.show();
+                if (i == 5) {
+                    cube.show();
+                }
+            }
+
+            assertEquals(states[6], cube.stateAt(6).getState());
+            assertEquals(6, cube.revertTo(6));
+            assertEquals(states[6], cube.show());
+        }
+    }
+
+    // Przy polityce BLOCK wątek rotujący czeka na miejsce w buforze, a budzi go odebranie zdarzenia albo zamknięcie
+    // subskrypcji.
+    @Test
+    public void rotationFeedBlockedPublisherIsWoken() throws InterruptedException {
+        Cube cube = getBasicCube(3);
+        CubeFeed feed = cube.subscribe(2, CubeFeed.Overflow.BLOCK);
+        cube.rotate(0, 0);
+        cube.rotate(0, 1);
+
+        Thread rotating = new Thread(() -> {
+            try {
+                cube.rotate(1, 0);
+                cube.rotate(2, 0);
+                cube.rotate(1, 2);
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        });
+        rotating.start();
+
+        assertEquals(1, feed.take().getVersion());
+        assertEquals(2, feed.take().getVersion());
+        // Obroty 3 i 4 zapełniają bufor, a obrót 5 czeka, aż zamknięcie subskrypcji go obudzi.
+        while (rotating.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        feed.close();
+        rotating.join(10_000);
+        assertFalse(rotating.isAlive());
+        assertEquals(5, cube.getVersion());
+        assertTrue(feed.isOverflowed());
+    }
+
 }
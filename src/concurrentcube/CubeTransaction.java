@@ -0,0 +1,161 @@
+// author - Patryk Jędrzejczak
+
+// Transakcja: ciągi obrotów na kilku kostkach wykonywane atomowo, tzn. żadna operacja na tych kostkach nie widzi
+// stanu pośredniego. Przykładem są dwie kostki-lustra, które muszą pozostać zgodne.
+//
+// Przed wykonaniem obrotów transakcja rezerwuje na każdej kostce potrzebne warstwy (Cube.enterLayers()): wszystkie
+// warstwy jednej grupy naraz, jak jeden wątek rotujący. Jeśli obroty na kostce należą do więcej niż jednej grupy,
+// transakcja bierze kostkę na wyłączność (wymaga Builder.exclusiveTransactions()). Kostki są rezerwowane według
+// rosnących numerów (globalna kolejność), więc transakcje nie mogą się zakleszczyć ze sobą, a każda rezerwacja
+// na jednej kostce jest atomowa, więc nie mogą się zakleszczyć ze zwykłymi operacjami. Transakcje na rozłącznych
+// warstwach tej samej grupy wykonują się współbieżnie.
+//
+// Tak jak pozostałe operacje, transakcję w całości wykonuje wątek, który wywołał execute(): obroty, razem z akcjami
+// beforeRotation i afterRotation, są wykonywane w tym wątku, w kolejności dodania. Po wykonaniu wszystkich obrotów
+// rezerwacje są zwalniane.
+
+package concurrentcube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public final class CubeTransaction {
+
+    // Rezerwacja na jednej kostce i obroty, które się w niej wykonają.
+    private static final class Part {
+
+        private final Cube cube;
+        private final List<CubeMove> moves = new ArrayList<>();
+        // grupa wszystkich obrotów albo -1, jeśli obroty należą do więcej niż jednej grupy (wyłączność)
+        private int group;
+        private int[] dualLayers;
+
+        private Part(Cube cube) {
+            this.cube = cube;
+        }
+
+        private void enter() throws InterruptedException {
+            if (group < 0) {
+                cube.enterExclusive();
+            }
+            else {
+                cube.enterLayers(group, dualLayers);
+            }
+        }
+
+        private void exit() throws InterruptedException {
+            if (group < 0) {
+                cube.exitExclusive();
+            }
+            else {
+                cube.exitLayers(group, dualLayers);
+            }
+        }
+
+    }
+
+    // części transakcji według numerów kostek
+    private final TreeMap<Long, Part> parts = new TreeMap<>();
+    // false, jeśli transakcja zmieniła się od wyznaczenia rezerwacji
+    private boolean planned;
+
+    // Dodaje obrót (side, layer) kostki cube na koniec transakcji.
+    public synchronized CubeTransaction rotate(Cube cube, int side, int layer) {
+        return add(cube, new CubeMove(side, layer));
+    }
+
+    public synchronized CubeTransaction add(Cube cube, CubeMove move) {
+        if (move.getSide() < 0 || move.getSide() > 5 || move.getLayer() < 0 || move.getLayer() >= cube.getSize()) {
+            throw new IllegalArgumentException("invalid move " + move);
+        }
+        parts.computeIfAbsent(cube.getId(), id -> new Part(cube)).moves.add(move);
+        planned = false;
+        return this;
+    }
+
+    public synchronized CubeTransaction add(Cube cube, List<CubeMove> moves) {
+        for (CubeMove move : moves) {
+            add(cube, move);
+        }
+        return this;
+    }
+
+    private static int groupOf(int side) {
+        return side == 0 || side == 5 ? 0 : side == 1 || side == 3 ? 1 : 2;
+    }
+
+    private static int dualLayerOf(Cube cube, CubeMove move) {
+        return move.getSide() < 3 ? move.getLayer() : cube.getSize() - move.getLayer() - 1;
+    }
+
+    // Wyznacza rezerwacje.
+    private void plan() {
+        for (Part part : parts.values()) {
+            part.group = groupOf(part.moves.get(0).getSide());
+            TreeSet<Integer> layers = new TreeSet<>();
+            for (CubeMove move : part.moves) {
+                if (groupOf(move.getSide()) != part.group) {
+                    part.group = -1;
+                    break;
+                }
+                layers.add(dualLayerOf(part.cube, move));
+            }
+            part.dualLayers = part.group < 0 ? null : layers.stream().mapToInt(Integer::intValue).toArray();
+        }
+        planned = true;
+    }
+
+    // Wykonuje transakcję w wątku wywołującym. Transakcję można wykonać wielokrotnie; wykonania jednego obiektu
+    // transakcji są sekwencyjne. Rzuca InterruptedException, jeśli wątek został przerwany w trakcie rezerwacji (wtedy
+    // żaden obrót nie został wykonany) albo po niej (wtedy transakcja została wykonana).
+    public synchronized void execute() throws InterruptedException {
+        if (parts.isEmpty()) {
+            return;
+        }
+        if (!planned) {
+            plan();
+        }
+
+        Part[] ordered = parts.values().toArray(new Part[0]);
+        int entered = 0;
+        boolean interrupted = false;
+        try {
+            for (; entered < ordered.length; entered++) {
+                ordered[entered].enter();
+            }
+
+            for (Part part : ordered) {
+                for (CubeMove move : part.moves) {
+                    part.cube.applyRotation(move.getSide(), move.getLayer());
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            for (int i = entered - 1; i >= 0; i--) {
+                try {
+                    ordered[i].exit();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder("CubeTransaction(");
+        for (Part part : parts.values()) {
+            result.append(part.cube.getId()).append(": ").append(part.moves).append(' ');
+        }
+        return result.append(')').toString();
+    }
+
+}
@@ -0,0 +1,181 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CubeTransactionTest {
+
+    private static final Random random = new Random();
+
+    private Cube getBasicCube(int size) {
+        return new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    private static CubeMove inverse(CubeMove move, int size) {
+        return new CubeMove(CubeGeometry.opposite(move.getSide()), size - move.getLayer() - 1);
+    }
+
+    // Uruchamia wątki i czeka, aż skończą.
+    private static void runAll(List<Thread> threads) {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                System.err.println("test interrupted");
+            }
+        }
+    }
+
+    // Transakcja obrotów i obrotów do nich odwrotnych nie zmienia stanu, więc nikt nie może zobaczyć innego stanu niż
+    // początkowy, także przy obrotach wielu grup na jednej kostce.
+    @Test
+    public void intermediateStatesAreInvisible() throws InterruptedException {
+        int size = 4;
+        Cube cube = new Cube.Builder(size).exclusiveTransactions().build();
+        String solved = getBasicCube(size).show();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger violations = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            boolean singleGroup = t % 2 == 0;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 300; i++) {
+                        List<CubeMove> moves = new ArrayList<>();
+                        int side = random.nextInt(6);
+                        for (int j = 0; j < 4; j++) {
+                            moves.add(new CubeMove(singleGroup ? side : random.nextInt(6), random.nextInt(size)));
+                        }
+                        CubeTransaction transaction = new CubeTransaction().add(cube, moves);
+                        for (int j = moves.size() - 1; j >= 0; j--) {
+                            transaction.add(cube, inverse(moves.get(j), size));
+                        }
+                        transaction.execute();
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        if (!cube.show().equals(solved)) {
+                            violations.incrementAndGet();
+                        }
+                        Thread.yield();
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }));
+        }
+
+        assertTimeout(Duration.ofSeconds(20), () -> {
+            List<Thread> writers = threads.subList(0, 4);
+            List<Thread> readers = threads.subList(4, threads.size());
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            runAll(writers);
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        });
+
+        assertEquals(0, violations.get());
+        assertEquals(solved, cube.show());
+    }
+
+    // Kostki-lustra zmieniane tylko transakcjami pozostają zgodne. Transakcje dodają kostki w różnej kolejności,
+    // a zwykłe obroty trzeciej kostki mieszają się z nimi - rezerwacje w globalnej kolejności się nie zakleszczają.
+    @Test
+    public void mirroredCubesStayConsistent() throws InterruptedException {
+        int size = 5;
+        Cube first = getBasicCube(size);
+        Cube second = getBasicCube(size);
+        Cube other = getBasicCube(size);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            boolean reversed = t % 2 == 1;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 300; i++) {
+                        int side = random.nextInt(6);
+                        List<CubeMove> moves = new ArrayList<>();
+                        for (int j = 0; j < 3; j++) {
+                            moves.add(new CubeMove(j == 0 ? side : CubeGeometry.opposite(side), random.nextInt(size)));
+                        }
+                        CubeTransaction transaction = new CubeTransaction();
+                        if (reversed) {
+                            transaction.add(second, moves).add(other, moves).add(first, moves);
+                        }
+                        else {
+                            transaction.add(first, moves).add(second, moves);
+                        }
+                        transaction.execute();
+                        other.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            }));
+        }
+
+        assertTimeout(Duration.ofSeconds(20), () -> runAll(threads));
+
+        assertEquals(first.show(), second.show());
+        assertEquals(8 * 300 * 3, first.getVersion());
+    }
+
+    @Test
+    public void rejectsInvalidTransactions() {
+        Cube cube = getBasicCube(3);
+        assertThrows(IllegalArgumentException.class, () -> new CubeTransaction().rotate(cube, 6, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CubeTransaction().rotate(cube, 0, 3));
+        // Obroty dwóch grup jednej kostki wymagają wyłączności.
+        assertThrows(IllegalStateException.class,
+                () -> new CubeTransaction().rotate(cube, 0, 0).rotate(cube, 1, 0).execute());
+    }
+
+    // Obroty transakcji, razem z akcjami, wykonuje wątek, który wywołał execute(), w kolejności dodania.
+    @Test
+    public void movesRunOnCommittingThread() throws InterruptedException {
+        int size = 4;
+        Thread caller = Thread.currentThread();
+        List<Integer> layers = new ArrayList<>();
+        AtomicBoolean otherThread = new AtomicBoolean();
+        Cube cube = new Cube.Builder(size).beforeRotation((side, layer) -> {
+            if (Thread.currentThread() != caller) {
+                otherThread.set(true);
+            }
+            layers.add(layer);
+        }).build();
+
+        new CubeTransaction().rotate(cube, 0, 3).rotate(cube, 0, 1).rotate(cube, 5, 0).rotate(cube, 0, 2).execute();
+
+        assertFalse(otherThread.get());
+        assertEquals(List.of(3, 1, 0, 2), layers);
+    }
+
+}
@@ -0,0 +1,137 @@
+// author - Patryk Jędrzejczak
+
+// Stan kostki przechowywany wprost: sześć ścian z kolorami wszystkich kwadratów.
+
+package concurrentcube;
+
+import java.nio.charset.StandardCharsets;
+
+class DenseCubeState implements CubeState {
+
+    // największy rozmiar kostki, której opis mieści się w tablicy bajtów i napisie
+    static final int MAX_DESCRIBED_SIZE = (int) Math.sqrt((Integer.MAX_VALUE - 8) / 6.0);
+
+    private final int size;
+    private final FaceStore top, left, front, right, back, bottom;
+    private final FaceStore[] sides;
+
+    DenseCubeState(int size) {
+        this(size, new FaceStore[]{new CubeSide(size, 0), new CubeSide(size, 1), new CubeSide(size, 2),
+                new CubeSide(size, 3), new CubeSide(size, 4), new CubeSide(size, 5)});
+    }
+
+    // Stan na podanych ścianach (w kolejności jak w show()), np. trzymanych poza stertą.
+    DenseCubeState(int size, FaceStore[] sides) {
+        this.size = size;
+        this.sides = sides;
+        top = sides[0];
+        left = sides[1];
+        front = sides[2];
+        right = sides[3];
+        back = sides[4];
+        bottom = sides[5];
+    }
+
+    @Override
+    public void rotate(int side, int layer) {
+        rotateLayer(side, layer);
+        rotateSide(side, layer);
+    }
+
+    // Operacja obrócenia "brzegów" warstwy.
+    private void rotateLayer(int side, int layer) {
+        byte[] copyOfFirstFragment;
+
+        switch (side) {
+            case 0:
+                copyOfFirstFragment = left.getRow(layer);
+                left.setRow(layer, front.getRow(layer));
+                front.setRow(layer, right.getRow(layer));
+                right.setRow(layer, back.getRow(layer));
+                back.setRow(layer, copyOfFirstFragment);
+                break;
+            case 1:
+                copyOfFirstFragment = top.getColumn(layer);
+                top.setColumn(layer, back.getReversedColumn(size - layer - 1));
+                back.setColumn(size - layer - 1, bottom.getReversedColumn(layer));
+                bottom.setColumn(layer, front.getColumn(layer));
+                front.setColumn(layer, copyOfFirstFragment);
+                break;
+            case 2:
+                copyOfFirstFragment = top.getRow(size - layer - 1);
+                top.setRow(size - layer - 1, left.getReversedColumn(size - layer - 1));
+                left.setColumn(size - layer - 1, bottom.getRow(layer));
+                bottom.setRow(layer, right.getReversedColumn(layer));
+                right.setColumn(layer, copyOfFirstFragment);
+                break;
+            case 3:
+                copyOfFirstFragment = top.getReversedColumn(size - layer - 1);
+                top.setColumn(size - layer - 1, front.getColumn(size - layer - 1));
+                front.setColumn(size - layer - 1, bottom.getColumn(size - layer - 1));
+                bottom.setColumn(size - layer - 1, back.getReversedColumn(layer));
+                back.setColumn(layer, copyOfFirstFragment);
+                break;
+            case 4:
+                copyOfFirstFragment = top.getReversedRow(layer);
+                top.setRow(layer, right.getColumn(size - layer - 1));
+                right.setColumn(size - layer - 1, bottom.getReversedRow(size - layer - 1));
+                bottom.setRow(size - layer - 1, left.getColumn(layer));
+                left.setColumn(layer, copyOfFirstFragment);
+                break;
+            case 5:
+                copyOfFirstFragment = left.getRow(size - layer - 1);
+                left.setRow(size - layer - 1, back.getRow(size - layer - 1));
+                back.setRow(size - layer - 1, right.getRow(size - layer - 1));
+                right.setRow(size - layer - 1, front.getRow(size - layer - 1));
+                front.setRow(size - layer - 1, copyOfFirstFragment);
+                break;
+        }
+    }
+
+    // Operacja obrócenia całej ściany, gdy layer == 0 lub layer == size - 1.
+    private void rotateSide(int side, int layer) {
+        if (layer == 0) {
+            if (side == 0) top.rotateClockwise();
+            else if (side == 1) left.rotateClockwise();
+            else if (side == 2) front.rotateClockwise();
+            else if (side == 3) right.rotateClockwise();
+            else if (side == 4) back.rotateClockwise();
+            else if (side == 5) bottom.rotateClockwise();
+        }
+
+        if (layer == size - 1) {
+            if (side == 0) bottom.rotateCounterClockwise();
+            else if (side == 1) right.rotateCounterClockwise();
+            else if (side == 2) back.rotateCounterClockwise();
+            else if (side == 3) left.rotateCounterClockwise();
+            else if (side == 4) front.rotateCounterClockwise();
+            else if (side == 5) top.rotateCounterClockwise();
+        }
+    }
+
+    @Override
+    public int colorAt(int face, int row, int column) {
+        return sides[face].get(row, column);
+    }
+
+    @Override
+    public String describe() {
+        if (size > MAX_DESCRIBED_SIZE) {
+            throw new IllegalStateException("cube of size " + size + " is too large to be described by a string (max " +
+                    MAX_DESCRIBED_SIZE + ")");
+        }
+        byte[] result = new byte[6 * size * size];
+        for (int side = 0; side < 6; side++) {
+            sides[side].describeTo(result, side * size * size);
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void restore(String description) {
+        for (int side = 0; side < 6; side++) {
+            sides[side].setColors(description, side * size * size);
+        }
+    }
+
+}
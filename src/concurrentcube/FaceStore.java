@@ -0,0 +1,35 @@
+// author - Patryk Jędrzejczak
+
+// Kolory kwadratów jednej ściany kostki z operacjami na wierszach i kolumnach potrzebnymi przy obrotach. Wiersze
+// i kolumny są numerowane tak jak w show(). Współbieżnie mogą być wywoływane tylko operacje na rozłącznych wierszach
+// lub kolumnach (gwarantuje to Cube).
+
+package concurrentcube;
+
+interface FaceStore {
+
+    int get(int row, int column);
+
+    byte[] getRow(int row);
+
+    byte[] getColumn(int column);
+
+    byte[] getReversedRow(int row);
+
+    byte[] getReversedColumn(int column);
+
+    void setRow(int row, byte[] newRow);
+
+    void setColumn(int column, byte[] newColumn);
+
+    // Ustawia kolory według opisu ściany w formacie show(), zaczynającego się na pozycji offset.
+    void setColors(String description, int offset);
+
+    void rotateClockwise();
+
+    void rotateCounterClockwise();
+
+    // Wpisuje kolory ściany jako znaki '0'..'5' do tablicy description, zaczynając od pozycji offset.
+    void describeTo(byte[] description, int offset);
+
+}
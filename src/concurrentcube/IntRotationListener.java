@@ -0,0 +1,16 @@
+// author - Patryk Jędrzejczak
+
+// Akcja wywoływana przy obrocie warstwy layer patrząc od ściany side. W przeciwieństwie do BiConsumer<Integer, Integer>
+// nie wymaga opakowywania argumentów w obiekty Integer przy każdym obrocie.
+
+package concurrentcube;
+
+@FunctionalInterface
+public interface IntRotationListener {
+
+    // Akcja, która nic nie robi. Kostka w ogóle jej nie wywołuje.
+    IntRotationListener NOOP = (side, layer) -> {};
+
+    void accept(int side, int layer);
+
+}
@@ -0,0 +1,71 @@
+// author - Patryk Jędrzejczak
+
+// Statystyki czasów trwania operacji jednej klasy (Builder.latencyMetrics()): liczba, średnia, maksimum i histogram
+// z przedziałami o granicach będących potęgami dwójki. Percentyle są więc przybliżone z góry, z dokładnością do
+// dwukrotności. Aktualizacje są nieblokujące i mogą być współbieżne z odczytami.
+
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class LatencyStats {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    // buckets[b] - liczba operacji trwających od 2^(b-1) do 2^b - 1 nanosekund (b = 0 - 0 nanosekund)
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    // Górne oszacowanie czasu, którego nie przekroczył ułamek fraction operacji (np. 0.99), albo 0, jeśli nie było
+    // operacji.
+    public long getPercentileNanos(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1");
+        }
+        long[] snapshot = new long[buckets.length()];
+        long total = 0;
+        for (int b = 0; b < snapshot.length; b++) {
+            snapshot[b] = buckets.get(b);
+            total += snapshot[b];
+        }
+        long needed = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int b = 0; b < snapshot.length; b++) {
+            seen += snapshot[b];
+            if (seen >= needed) {
+                return Math.min(b == 0 ? 0 : (1L << b) - 1, getMaxNanos());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d operations, mean %.0f ns, p50 %d ns, p99 %d ns, max %d ns", getCount(),
+                getMeanNanos(), getPercentileNanos(0.5), getPercentileNanos(0.99), getMaxNanos());
+    }
+
+}
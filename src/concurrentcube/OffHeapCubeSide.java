@@ -0,0 +1,178 @@
+// author - Patryk Jędrzejczak
+
+// Ściana kostki trzymana poza stertą: w buforach bezpośrednich albo w pliku odwzorowanym w pamięci. Odśmiecacz nie
+// przegląda zawartości takich buforów, a ich rozmiar nie jest ograniczony rozmiarem sterty. Bufor ByteBuffer może
+// mieć najwyżej Integer.MAX_VALUE bajtów, więc ściana jest podzielona na fragmenty po rowsPerChunk wierszy.
+//
+// Operacje używają tylko bezwzględnych indeksów (albo kopii buforów), więc nie zmieniają wspólnej pozycji buforów
+// i mogą działać współbieżnie na rozłącznych wierszach lub kolumnach.
+
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+class OffHeapCubeSide implements FaceStore {
+
+    // największy rozmiar jednego fragmentu
+    static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int size;
+    private final int rowsPerChunk;
+    // null po release()
+    private ByteBuffer[] chunks;
+
+    // Ściana w buforach bezpośrednich, gdy file == null, a w przeciwnym razie w pliku file od pozycji offset.
+    // Fragment ma najwyżej maxChunkBytes bajtów, ale zawsze co najmniej jeden wiersz.
+    OffHeapCubeSide(int size, int initialColor, FileChannel file, long offset, int maxChunkBytes)
+            throws IOException {
+        this.size = size;
+        rowsPerChunk = Math.max(1, Math.min(size, maxChunkBytes / size));
+        chunks = new ByteBuffer[(size + rowsPerChunk - 1) / rowsPerChunk];
+
+        byte[] row = new byte[size];
+        Arrays.fill(row, (byte) initialColor);
+        for (int i = 0; i < chunks.length; i++) {
+            int rows = Math.min(rowsPerChunk, size - i * rowsPerChunk);
+            long length = (long) rows * size;
+            chunks[i] = file == null
+                    ? ByteBuffer.allocateDirect((int) length)
+                    : file.map(FileChannel.MapMode.READ_WRITE, offset + (long) i * rowsPerChunk * size, length);
+            for (int j = 0; j < rows; j++) {
+                chunks[i].put(row);
+            }
+        }
+    }
+
+    // Zrywa odwołania do buforów, żeby odśmiecacz mógł je usunąć razem z pamięcią poza stertą. Potem ściana nie może
+    // być używana.
+    void release() {
+        chunks = null;
+    }
+
+    private ByteBuffer chunk(int row) {
+        return chunks[row / rowsPerChunk];
+    }
+
+    private int index(int row, int column) {
+        return (row % rowsPerChunk) * size + column;
+    }
+
+    private void set(int row, int column, byte color) {
+        chunk(row).put(index(row, column), color);
+    }
+
+    private byte colorOf(int row, int column) {
+        return chunk(row).get(index(row, column));
+    }
+
+    @Override
+    public int get(int row, int column) {
+        return colorOf(row, column);
+    }
+
+    @Override
+    public byte[] getRow(int row) {
+        byte[] result = new byte[size];
+        ByteBuffer source = chunk(row).duplicate();
+        source.position(index(row, 0));
+        source.get(result);
+        return result;
+    }
+
+    @Override
+    public byte[] getColumn(int column) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = colorOf(i, column);
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] getReversedRow(int row) {
+        byte[] result = getRow(row);
+        for (int i = 0; i < size / 2; i++) {
+            byte temp = result[i];
+            result[i] = result[size - i - 1];
+            result[size - i - 1] = temp;
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] getReversedColumn(int column) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = colorOf(size - i - 1, column);
+        }
+        return result;
+    }
+
+    @Override
+    public void setRow(int row, byte[] newRow) {
+        ByteBuffer destination = chunk(row).duplicate();
+        destination.position(index(row, 0));
+        destination.put(newRow, 0, size);
+    }
+
+    @Override
+    public void setColumn(int column, byte[] newColumn) {
+        for (int i = 0; i < size; i++) {
+            set(i, column, newColumn[i]);
+        }
+    }
+
+    @Override
+    public void setColors(String description, int offset) {
+        byte[] row = new byte[size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                row[j] = (byte) (description.charAt(offset + i * size + j) - '0');
+            }
+            setRow(i, row);
+        }
+    }
+
+    // Obraca ścianę w miejscu, tak jak CubeSide.
+    @Override
+    public void rotateClockwise() {
+        int last = size - 1;
+        for (int i = 0; i < size / 2; i++) {
+            for (int j = i; j < last - i; j++) {
+                byte temp = colorOf(i, j);
+                set(i, j, colorOf(last - j, i));
+                set(last - j, i, colorOf(last - i, last - j));
+                set(last - i, last - j, colorOf(j, last - i));
+                set(j, last - i, temp);
+            }
+        }
+    }
+
+    @Override
+    public void rotateCounterClockwise() {
+        int last = size - 1;
+        for (int i = 0; i < size / 2; i++) {
+            for (int j = i; j < last - i; j++) {
+                byte temp = colorOf(i, j);
+                set(i, j, colorOf(j, last - i));
+                set(j, last - i, colorOf(last - i, last - j));
+                set(last - i, last - j, colorOf(last - j, i));
+                set(last - j, i, temp);
+            }
+        }
+    }
+
+    @Override
+    public void describeTo(byte[] description, int offset) {
+        for (int i = 0; i < size; i++) {
+            byte[] row = getRow(i);
+            for (int j = 0; j < size; j++) {
+                description[offset + i * size + j] = (byte) ('0' + row[j]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+// author - Patryk Jędrzejczak
+
+// Stan kostki, której ściany są trzymane poza stertą (OffHeapCubeSide): w pamięci bezpośredniej albo w pliku
+// odwzorowanym w pamięci. Przydatne dla kostek tak dużych, że ich kolory nie mieszczą się na stercie. Pamięć
+// bezpośrednia jest ograniczona opcją -XX:MaxDirectMemorySize, a plik nie ma takiego ograniczenia. Plik jest zawsze
+// inicjowany kostką ułożoną.
+//
+// Po close() stan nie może być używany. Java 11 nie pozwala jawnie zwolnić bufora, więc close() zamyka plik i zrywa
+// odwołania ścian do buforów (OffHeapCubeSide.release()), a pamięć zostaje zwolniona, gdy odśmiecacz usunie same
+// obiekty buforów. Flaga closed jest volatile, więc operacja rozpoczęta po close() w innym wątku zawsze ją zobaczy.
+
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class OffHeapCubeState extends DenseCubeState {
+
+    private final OffHeapCubeSide[] sides;
+    private final FileChannel file;
+    private volatile boolean closed;
+
+    private OffHeapCubeState(int size, OffHeapCubeSide[] sides, FileChannel file) {
+        super(size, sides);
+        this.sides = sides;
+        this.file = file;
+    }
+
+    // Stan w pamięci bezpośredniej, gdy path == null, a w przeciwnym razie w pliku path (tworzonym lub nadpisywanym).
+    static OffHeapCubeState create(int size, Path path) throws IOException {
+        return create(size, path, OffHeapCubeSide.MAX_CHUNK_BYTES);
+    }
+
+    static OffHeapCubeState create(int size, Path path, int maxChunkBytes) throws IOException {
+        FileChannel file = null;
+        try {
+            if (path != null) {
+                file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            long faceBytes = (long) size * size;
+            OffHeapCubeSide[] sides = new OffHeapCubeSide[6];
+            for (int side = 0; side < 6; side++) {
+                sides[side] = new OffHeapCubeSide(size, side, file, side * faceBytes, maxChunkBytes);
+            }
+            return new OffHeapCubeState(size, sides, file);
+        } catch (IOException | RuntimeException e) {
+            if (file != null) {
+                file.close();
+            }
+            throw e;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("cube state is closed");
+        }
+    }
+
+    @Override
+    public void rotate(int side, int layer) {
+        checkOpen();
+        super.rotate(side, layer);
+    }
+
+    @Override
+    public int colorAt(int face, int row, int column) {
+        checkOpen();
+        return super.colorAt(face, row, column);
+    }
+
+    @Override
+    public String describe() {
+        checkOpen();
+        return super.describe();
+    }
+
+    @Override
+    public void restore(String description) {
+        checkOpen();
+        super.restore(description);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (OffHeapCubeSide side : sides) {
+            side.release();
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Zamknięcie pliku nie wpływa na odwzorowane bufory, więc błąd można pominąć.
+            }
+        }
+    }
+
+}
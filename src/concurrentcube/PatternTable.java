@@ -0,0 +1,235 @@
+// author - Patryk Jędrzejczak
+
+// Tablica odległości od kostki ułożonej dla wszystkich stanów osiągalnych w co najwyżej depth ruchach (baza wzorców
+// ograniczona do otoczenia stanu ułożonego). Stany są zapamiętane jako 64-bitowe skróty w tablicy z adresowaniem
+// otwartym. Każdy slot to skrót z wyzerowanymi czterema najmłodszymi bitami, w których zapisana jest odległość,
+// a 0 oznacza pusty slot.
+//
+// lookup() zwraca oszacowanie odległości: dla stanu z tablicy jego odległość, a dla pozostałych depth + 1. Bez kolizji
+// skrótów jest to dolne oszacowanie, dopuszczalne dla IDA*. Kolizja działa w obie strony: stan o skrócie równym
+// skrótowi stanu bliższego dostaje zaniżoną odległość, a przy budowaniu jest uznany za już odwiedzony i nie jest
+// rozwijany, więc części jego potomków może brakować w tablicy (dostają depth + 1) albo mają zawyżoną odległość.
+// Odróżnienie kolizji od ponownego odwiedzenia wymagałoby trzymania całych stanów, więc tego nie robimy. Skróty mają
+// 60 znaczących bitów, więc kolizje są bardzo mało prawdopodobne, ale przy kolizji rozwiązanie znalezione przez
+// CubeSolver może nie być najkrótsze.
+//
+// Tablica jest budowana przeszukiwaniem wszerz, w którym każdy poziom jest rozwijany równolegle. Można ją zapisać do
+// pliku i później odwzorować go w pamięci bez ponownego budowania.
+
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+final class PatternTable {
+
+    private static final int MAGIC = 0x43554245;
+    private static final int HEADER_BYTES = 16;
+    private static final long DISTANCE_MASK = 15;
+    static final int MAX_DEPTH = 14;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int size;
+    private final int depth;
+    private final LongBuffer slots;
+    private final int mask;
+
+    private PatternTable(int size, int depth, LongBuffer slots) {
+        this.size = size;
+        this.depth = depth;
+        this.slots = slots;
+        mask = slots.capacity() - 1;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    // Skrót stanu w formacie kolorów opisu show() (FNV-1a z mieszaniem bitów na końcu).
+    static long hash(byte[] state) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte color : state) {
+            hash = (hash ^ color) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long tag(long hash) {
+        long tag = hash & ~DISTANCE_MASK;
+        return tag == 0 ? DISTANCE_MASK + 1 : tag;
+    }
+
+    private static int index(long hash, int mask) {
+        return (int) (hash >>> 33) & mask;
+    }
+
+    int lookup(long hash) {
+        long tag = tag(hash);
+        int i = index(hash, mask);
+        for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == 0) {
+                return depth + 1;
+            }
+            if ((slot & ~DISTANCE_MASK) == tag) {
+                return (int) (slot & DISTANCE_MASK);
+            }
+        }
+        return depth + 1; // Pełna tablica bez tego skrótu.
+    }
+
+    // Wstawia skrót, jeśli go nie ma. Zwraca true, jeśli skrót został wstawiony. Tablica rośnie najwyżej do
+    // MAX_CAPACITY, więc przy bardzo dużej głębokości może się zapełnić - wtedy rzuca IllegalStateException.
+    private static boolean insert(AtomicLongArray slots, long hash, int distance) {
+        long tag = tag(hash);
+        int mask = slots.length() - 1;
+        int i = index(hash, mask);
+        for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == 0) {
+                if (slots.compareAndSet(i, 0, tag | distance)) {
+                    return true;
+                }
+                slot = slots.get(i);
+            }
+            if ((slot & ~DISTANCE_MASK) == tag) {
+                return false;
+            }
+        }
+        throw new IllegalStateException("pattern table is full (" + slots.length() + " slots)");
+    }
+
+    // Tablica o pojemności wystarczającej na entries skrótów przy zapełnieniu najwyżej do połowy.
+    private static AtomicLongArray ensureCapacity(AtomicLongArray slots, long entries) {
+        long needed = Math.min(MAX_CAPACITY, Long.highestOneBit(Math.max(1, 2 * entries - 1)) << 1);
+        if (slots != null && slots.length() >= needed) {
+            return slots;
+        }
+        AtomicLongArray result = new AtomicLongArray((int) needed);
+        if (slots != null) {
+            int mask = result.length() - 1;
+            for (int i = 0; i < slots.length(); i++) {
+                long slot = slots.get(i);
+                if (slot != 0) {
+                    int j = index(slot, mask);
+                    while (result.get(j) != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    result.set(j, slot);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] apply(byte[] state, int[] move) {
+        byte[] result = new byte[state.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = state[move[i]];
+        }
+        return result;
+    }
+
+    // Buduje tablicę dla stanów osiągalnych z solved w co najwyżej depth ruchach moves (permutacje jak w
+    // CubeGeometry.permutation). Poziomy są rozwijane równolegle we wspólnej puli ForkJoin.
+    static PatternTable build(int size, int depth, int[][] moves, byte[] solved) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("depth must be between 0 and " + MAX_DEPTH);
+        }
+
+        AtomicLongArray slots = ensureCapacity(null, 1);
+        insert(slots, hash(solved), 0);
+        long entries = 1;
+        List<byte[]> frontier = List.of(solved);
+
+        for (int distance = 1; distance <= depth && !frontier.isEmpty(); distance++) {
+            slots = ensureCapacity(slots, entries + (long) frontier.size() * moves.length);
+            AtomicLongArray current = slots;
+            int currentDistance = distance;
+
+            if (distance < depth) {
+                frontier = frontier.parallelStream()
+                        .flatMap(state -> Arrays.stream(moves).map(move -> apply(state, move)))
+                        .filter(child -> insert(current, hash(child), currentDistance))
+                        .collect(Collectors.toList());
+                entries += frontier.size();
+            }
+            else { // Stanów z ostatniego poziomu nie rozwijamy, więc ich nie zbieramy.
+                entries += frontier.parallelStream()
+                        .flatMap(state -> Arrays.stream(moves).map(move -> apply(state, move)))
+                        .filter(child -> insert(current, hash(child), currentDistance))
+                        .count();
+            }
+        }
+
+        long[] result = new long[slots.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slots.get(i);
+        }
+        return new PatternTable(size, depth, LongBuffer.wrap(result));
+    }
+
+    void save(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(size).putInt(depth).putInt(slots.capacity()).flip();
+            while (header.hasRemaining()) {
+                file.write(header);
+            }
+
+            ByteBuffer block = ByteBuffer.allocate(1 << 16);
+            for (int i = 0; i < slots.capacity(); ) {
+                block.clear();
+                while (block.remaining() >= Long.BYTES && i < slots.capacity()) {
+                    block.putLong(slots.get(i++));
+                }
+                block.flip();
+                while (block.hasRemaining()) {
+                    file.write(block);
+                }
+            }
+        }
+    }
+
+    // Odwzorowuje w pamięci tablicę zapisaną przez save(). Nagłówek jest sprawdzany przed odwzorowaniem pliku.
+    static PatternTable load(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (file.read(header) < 0) {
+                    throw new IOException("not a pattern table file");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a pattern table file");
+            }
+            int size = header.getInt();
+            int depth = header.getInt();
+            int capacity = header.getInt();
+            if (size <= 0 || depth < 0 || depth > MAX_DEPTH || capacity <= 0 || capacity > MAX_CAPACITY ||
+                    Integer.bitCount(capacity) != 1 || file.size() != HEADER_BYTES + (long) capacity * Long.BYTES) {
+                throw new IOException("corrupted pattern table file");
+            }
+            MappedByteBuffer map = file.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) capacity * Long.BYTES);
+            return new PatternTable(size, depth, map.asLongBuffer());
+        }
+    }
+
+}
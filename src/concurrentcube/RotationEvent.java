@@ -0,0 +1,37 @@
+// author - Patryk Jędrzejczak
+
+// Zdarzenie opublikowane przez kostkę po wykonaniu obrotu. version to numer obrotu - stan kostki po zastosowaniu
+// wszystkich obrotów o numerach <= version, w kolejności numerów, jest stanem kostki, który mogła pokazać show().
+
+package concurrentcube;
+
+public final class RotationEvent {
+
+    private final int side;
+    private final int layer;
+    private final long version;
+
+    public RotationEvent(int side, int layer, long version) {
+        this.side = side;
+        this.layer = layer;
+        this.version = version;
+    }
+
+    public int getSide() {
+        return side;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "RotationEvent(" + side + ", " + layer + ", " + version + ")";
+    }
+
+}
@@ -0,0 +1,74 @@
+// author - Patryk Jędrzejczak
+
+// Pamięć podręczna ostatnio pokazanych stanów kostki, według numerów wersji. Łączna liczba znaków zapamiętanych stanów
+// nie przekracza budżetu maxChars; po jego przekroczeniu usuwane są najdawniej używane stany. Ostatnio pokazany stan
+// jest dodatkowo dostępny bez blokowania, bo to on jest potrzebny przy kolejnych show() bez obrotów pomiędzy.
+//
+// Numer wersji wyznacza stan tylko do cofnięcia historii: po cofnięciu i nowych obrotach kostka może mieć tę samą
+// wersję, ale inny stan. Dlatego clear() zwiększa epokę, a odczyt bez blokowania sprawdza, czy epoka się nie zmieniła.
+
+package concurrentcube;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class ShowCache {
+
+    private final long maxChars;
+    private final LinkedHashMap<Long, CubeSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+    private volatile CubeSnapshot latest;
+    // liczba wywołań clear()
+    private volatile long epoch;
+
+    ShowCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    CubeSnapshot latest() {
+        return latest;
+    }
+
+    long epoch() {
+        return epoch;
+    }
+
+    synchronized CubeSnapshot get(long version) {
+        return snapshots.get(version);
+    }
+
+    // Zapamiętuje stan, jeśli mieści się w budżecie.
+    synchronized void put(CubeSnapshot snapshot) {
+        long length = snapshot.getState().length();
+        if (length > maxChars) {
+            return;
+        }
+
+        CubeSnapshot previous = snapshots.put(snapshot.getVersion(), snapshot);
+        if (previous != null) {
+            chars -= previous.getState().length();
+        }
+        chars += length;
+
+        Iterator<Map.Entry<Long, CubeSnapshot>> iterator = snapshots.entrySet().iterator();
+        while (chars > maxChars) {
+            Map.Entry<Long, CubeSnapshot> eldest = iterator.next();
+            chars -= eldest.getValue().getState().length();
+            iterator.remove();
+        }
+
+        CubeSnapshot current = latest;
+        if (current == null || current.getVersion() <= snapshot.getVersion()) {
+            latest = snapshot;
+        }
+    }
+
+    synchronized void clear() {
+        snapshots.clear();
+        chars = 0;
+        latest = null;
+        epoch++;
+    }
+
+}
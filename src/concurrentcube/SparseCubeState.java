@@ -0,0 +1,131 @@
+// author - Patryk Jędrzejczak
+
+// Stan kostki przechowywany jako kostka ułożona plus lista wykonanych obrotów. Obrót kosztuje O(1) i nie wymaga
+// tablic kolorów, a kolor kwadratu jest liczony przy odczycie przez cofnięcie jego pozycji przez kolejne obroty
+// (O(liczba obrotów)). Opłaca się to dla dużych kostek, na których wykonano niewiele obrotów. Po maxMoves obrotach
+// stan jest jednorazowo zamieniany na DenseCubeState i dalej działa jak zwykła kostka.
+
+package concurrentcube;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class SparseCubeState implements CubeState {
+
+    private final int size;
+    private final int maxMoves;
+    // lista obrotów; obrót o indeksie i jest widoczny, gdy published[i] == 1
+    private final int[] sides;
+    private final int[] layers;
+    private final AtomicIntegerArray published;
+    // liczba zarezerwowanych indeksów listy
+    private final AtomicInteger reserved = new AtomicInteger();
+    // stan zwykły, ustawiony po przepełnieniu listy
+    private volatile DenseCubeState dense;
+    private final CountDownLatch materialized = new CountDownLatch(1);
+
+    SparseCubeState(int size, int maxMoves) {
+        this.size = size;
+        this.maxMoves = maxMoves;
+        sides = new int[maxMoves];
+        layers = new int[maxMoves];
+        published = new AtomicIntegerArray(maxMoves);
+    }
+
+    @Override
+    public void rotate(int side, int layer) {
+        if (dense == null) {
+            int index = reserved.getAndIncrement();
+            if (index < maxMoves) {
+                sides[index] = side;
+                layers[index] = layer;
+                published.set(index, 1);
+                return;
+            }
+
+            if (index == maxMoves) { // Ten wątek zamienia stan na zwykły.
+                materialize();
+            }
+            else { // Czekamy, aż inny wątek zamieni stan na zwykły.
+                awaitMaterialized();
+            }
+        }
+
+        dense.rotate(side, layer);
+    }
+
+    // Buduje zwykły stan z listy obrotów. Współbieżnie mogą działać tylko obroty różnych warstw tej samej grupy,
+    // a takie obroty są przemienne, więc wystarczy poczekać na zapisanie zarezerwowanych indeksów.
+    private void materialize() {
+        DenseCubeState result = new DenseCubeState(size);
+        for (int i = 0; i < maxMoves; i++) {
+            while (published.get(i) == 0) {
+                Thread.onSpinWait();
+            }
+            result.rotate(sides[i], layers[i]);
+        }
+        dense = result;
+        materialized.countDown();
+    }
+
+    private void awaitMaterialized() {
+        boolean interrupted = false;
+        while (dense == null) {
+            try {
+                materialized.await();
+            } catch (InterruptedException e) {
+                interrupted = true; // Obrót musi się wykonać, przerwanie zgłosi Cube.
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int colorAt(int face, int row, int column) {
+        DenseCubeState current = dense;
+        if (current != null) {
+            return current.colorAt(face, row, column);
+        }
+
+        // Nieopublikowane obroty wykonują się współbieżnie na innych warstwach, więc nie przesuwają tego kwadratu.
+        long position = CubeGeometry.position(face, row, column);
+        for (int i = Math.min(reserved.get(), maxMoves) - 1; i >= 0; i--) {
+            if (published.get(i) == 1) {
+                position = CubeGeometry.sourceOf(size, sides[i], layers[i], CubeGeometry.face(position),
+                        CubeGeometry.row(position), CubeGeometry.column(position));
+            }
+        }
+        return CubeGeometry.face(position); // W ułożonej kostce kolor kwadratu to numer ściany.
+    }
+
+    @Override
+    public String describe() {
+        DenseCubeState current = dense;
+        if (current != null) {
+            return current.describe();
+        }
+
+        StringBuilder result = new StringBuilder(6 * size * size);
+        for (int face = 0; face < 6; face++) {
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    result.append(colorAt(face, row, column));
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void restore(String description) {
+        DenseCubeState result = new DenseCubeState(size);
+        result.restore(description);
+        reserved.set(maxMoves + 1);
+        dense = result;
+        materialized.countDown();
+    }
+
+}
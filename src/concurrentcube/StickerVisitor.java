@@ -0,0 +1,12 @@
+// author - Patryk Jędrzejczak
+
+// Akcja wywoływana przez Cube.forEachSticker() dla każdego kwadratu kostki.
+
+package concurrentcube;
+
+@FunctionalInterface
+public interface StickerVisitor {
+
+    void visit(int face, int row, int column, int color);
+
+}
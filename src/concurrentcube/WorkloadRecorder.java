@@ -0,0 +1,120 @@
+// author - Patryk Jędrzejczak
+
+// Nagrywanie wywołań rotate() i show() kostki (Builder.recordWorkload()), razem z czasem wywołania i wątkiem.
+// Wywołania tryRotate() i tryShow() są nagrywane jako rotate() i show(); pozostałe operacje nie są nagrywane.
+//
+// Każdy wątek dopisuje wywołania do własnego bufora, więc nagrywanie nie dodaje rywalizacji między wątkami kostki.
+// Czasy w jednym buforze rosną, więc trace() scala bufory jak w sortowaniu przez scalanie.
+
+package concurrentcube;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class WorkloadRecorder {
+
+    // Wywołania jednego wątku. Dopisuje tylko właściciel, ale trace() może czytać współbieżnie.
+    private static final class ThreadBuffer {
+
+        private final int thread;
+        private long[] times = new long[64];
+        private byte[] operations = new byte[64];
+        private int[] layers = new int[64];
+        private int length;
+
+        private ThreadBuffer(int thread) {
+            this.thread = thread;
+        }
+
+        private synchronized void add(long time, int operation, int layer) {
+            if (length == times.length) {
+                times = Arrays.copyOf(times, length * 2);
+                operations = Arrays.copyOf(operations, length * 2);
+                layers = Arrays.copyOf(layers, length * 2);
+            }
+            times[length] = time;
+            operations[length] = (byte) operation;
+            layers[length] = layer;
+            length++;
+        }
+
+    }
+
+    private final int size;
+    private final long start = System.nanoTime();
+    private final AtomicInteger threadsNum = new AtomicInteger();
+    private final Queue<ThreadBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadBuffer> buffer = ThreadLocal.withInitial(() -> {
+        ThreadBuffer result = new ThreadBuffer(threadsNum.getAndIncrement());
+        buffers.add(result);
+        return result;
+    });
+
+    public WorkloadRecorder(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    void rotation(int side, int layer) {
+        buffer.get().add(System.nanoTime() - start, side, layer);
+    }
+
+    void show() {
+        buffer.get().add(System.nanoTime() - start, WorkloadTrace.SHOW, 0);
+    }
+
+    // Wywołania nagrane do tej pory, uporządkowane według czasu.
+    public WorkloadTrace trace() {
+        // kopie buforów: bufor, jego długość i pozycja następnego wywołania do scalenia
+        PriorityQueue<long[]> heads = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        ThreadBuffer[] copies = buffers.toArray(new ThreadBuffer[0]);
+        int[] lengths = new int[copies.length];
+        long[][] times = new long[copies.length][];
+        byte[][] operations = new byte[copies.length][];
+        int[][] layers = new int[copies.length][];
+        int total = 0;
+        for (int b = 0; b < copies.length; b++) {
+            synchronized (copies[b]) {
+                lengths[b] = copies[b].length;
+                times[b] = copies[b].times;
+                operations[b] = copies[b].operations;
+                layers[b] = copies[b].layers;
+            }
+            total += lengths[b];
+            if (lengths[b] > 0) {
+                heads.add(new long[]{times[b][0], b, 0});
+            }
+        }
+
+        long[] resultTimes = new long[total];
+        int[] resultThreads = new int[total];
+        byte[] resultOperations = new byte[total];
+        int[] resultLayers = new int[total];
+        for (int i = 0; i < total; i++) {
+            long[] head = heads.poll();
+            int b = (int) head[1];
+            int position = (int) head[2];
+            resultTimes[i] = times[b][position];
+            resultThreads[i] = copies[b].thread;
+            resultOperations[i] = operations[b][position];
+            resultLayers[i] = layers[b][position];
+            if (position + 1 < lengths[b]) {
+                head[0] = times[b][position + 1];
+                head[2] = position + 1;
+                heads.add(head);
+            }
+        }
+
+        return new WorkloadTrace(size, threadsNum.get(), resultTimes, resultThreads, resultOperations, resultLayers);
+    }
+
+}
@@ -0,0 +1,144 @@
+// author - Patryk Jędrzejczak
+
+package concurrentcube;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class WorkloadRecorderTest {
+
+    private static final Random random = new Random();
+
+    private Cube getBasicCube(int size) {
+        return new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+    }
+
+    // Nagrane wywołania jednego wątku, zapisane do pliku i odtworzone na nowej kostce, dają ten sam stan.
+    @Test
+    public void recordSaveLoadAndReplay() throws Exception {
+        int size = 4;
+        WorkloadRecorder recorder = new WorkloadRecorder(size);
+        Cube recorded = new Cube.Builder(size).recordWorkload(recorder).build();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 == 9) {
+                recorded.show();
+            }
+            else {
+                recorded.rotate(random.nextInt(6), random.nextInt(size));
+            }
+        }
+
+        Path file = Files.createTempFile("cube", ".workload");
+        try {
+            recorder.trace().save(file);
+            WorkloadTrace trace = WorkloadTrace.load(file);
+            assertEquals(size, trace.getSize());
+            assertEquals(1, trace.getThreadsNum());
+            assertEquals(1000, trace.length());
+            assertEquals(WorkloadTrace.SHOW, trace.operationAt(9));
+
+            Cube replayed = getBasicCube(size);
+            WorkloadReport report = new WorkloadReplayer(trace).replay(replayed, 1, WorkloadReplayer.MAX_SPEED);
+            assertEquals(1000, report.getOperations());
+            assertTrue(report.getLatency(0.5) <= report.getLatency(0.99));
+            assertTrue(report.getLatency(0.99) <= report.getMaxLatency());
+            assertEquals(recorded.show(), replayed.show());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Wywołania wielu wątków są scalane według czasu, a odtwarzanie w zadanym tempie trwa co najmniej tyle, ile
+    // przeskalowany czas nagrania.
+    @Test
+    public void concurrentRecordingAndScaledReplay() throws InterruptedException {
+        int size = 3;
+        int threadsNum = 4;
+        WorkloadRecorder recorder = new WorkloadRecorder(size);
+        Cube cube = new Cube.Builder(size).recordWorkload(recorder).build();
+
+        Thread[] threads = new Thread[threadsNum];
+        for (int t = 0; t < threadsNum; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        cube.rotate(random.nextInt(6), random.nextInt(size));
+                        if (i % 50 == 0) {
+                            Thread.sleep(1);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("test interrupted");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        WorkloadTrace trace = recorder.trace();
+        assertEquals(threadsNum, trace.getThreadsNum());
+        assertEquals(threadsNum * 200, trace.length());
+        int[] perThread = new int[threadsNum];
+        for (int i = 0; i < trace.length(); i++) {
+            if (i > 0) {
+                assertTrue(trace.timeAt(i - 1) <= trace.timeAt(i));
+            }
+            perThread[trace.threadAt(i)]++;
+        }
+        for (int count : perThread) {
+            assertEquals(200, count);
+        }
+
+        double speed = 2;
+        WorkloadReport report = new WorkloadReplayer(trace).replay(getBasicCube(size), 2, speed);
+        assertEquals(trace.length(), report.getOperations());
+        long span = trace.timeAt(trace.length() - 1) - trace.timeAt(0);
+        assertTrue(report.getElapsedNanos() >= (long) (span / speed));
+    }
+
+    @Test
+    public void rejectsMismatchedSizesAndCorruptedFiles() throws IOException {
+        WorkloadRecorder recorder = new WorkloadRecorder(3);
+        assertThrows(IllegalArgumentException.class, () -> new Cube.Builder(4).recordWorkload(recorder));
+        assertThrows(IllegalArgumentException.class,
+                () -> new WorkloadReplayer(recorder.trace()).replay(getBasicCube(4), 1, 1));
+
+        Path file = Files.createTempFile("cube", ".workload");
+        try {
+            Files.write(file, new byte[]{1, 2, 3});
+            assertThrows(IOException.class, () -> WorkloadTrace.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Wyjątek w wątku odtwarzającym jest przekazywany do wywołującego replay().
+    @Test
+    public void replayReportsFailures() throws InterruptedException {
+        int size = 3;
+        WorkloadRecorder recorder = new WorkloadRecorder(size);
+        Cube recorded = new Cube.Builder(size).recordWorkload(recorder).build();
+        for (int i = 0; i < 10; i++) {
+            recorded.rotate(i % 6, i % size);
+        }
+
+        RuntimeException thrown = new RuntimeException("callback failed");
+        Cube failing = new Cube.Builder(size).beforeRotation((side, layer) -> {
+            throw thrown;
+        }).build();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new WorkloadReplayer(recorder.trace()).replay(failing, 2, WorkloadReplayer.MAX_SPEED));
+        assertEquals(thrown, e.getCause());
+    }
+
+}
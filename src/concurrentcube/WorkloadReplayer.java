@@ -0,0 +1,149 @@
+// author - Patryk Jędrzejczak
+
+// Odtwarzanie zapisu wywołań (WorkloadTrace) na kostce jako generator obciążenia. Wywołania nagranego wątku t wykonuje
+// wątek odtwarzający t mod threadsNum, w kolejności z zapisu.
+//
+// Tempo: speed = 1 to tempo oryginalne, speed = 2 - dwa razy szybciej itd. Wątek odtwarzający czeka do zaplanowanego
+// czasu wywołania, a opóźnienie jest liczone od zaplanowanego czasu, więc uwzględnia też czekanie na poprzednie
+// operacje tego wątku (bez tego przeciążona kostka wyglądałaby na szybszą, niż jest). MAX_SPEED oznacza wykonywanie
+// wywołań najszybciej, jak się da, i liczenie opóźnienia od faktycznego początku operacji.
+//
+// Wyjątek rzucony w wątku odtwarzającym (np. przez akcję kostki) jest rzucany z replay() po zakończeniu wszystkich
+// wątków, opakowany w IllegalStateException.
+
+package concurrentcube;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public final class WorkloadReplayer {
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final WorkloadTrace trace;
+    // czas pierwszego wywołania, od którego liczymy zaplanowane czasy
+    private final long origin;
+
+    public WorkloadReplayer(WorkloadTrace trace) {
+        this.trace = trace;
+        origin = trace.length() > 0 ? trace.timeAt(0) : 0;
+    }
+
+    public WorkloadReport replay(Cube cube, int threadsNum, double speed) throws InterruptedException {
+        if (cube.getSize() != trace.getSize()) {
+            throw new IllegalArgumentException("trace is recorded for cubes of size " + trace.getSize());
+        }
+        if (threadsNum <= 0) {
+            throw new IllegalArgumentException("threadsNum must be positive");
+        }
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+
+        // calls[r] - numery wywołań wykonywanych przez wątek odtwarzający r
+        int[] counts = new int[threadsNum];
+        for (int i = 0; i < trace.length(); i++) {
+            counts[trace.threadAt(i) % threadsNum]++;
+        }
+        int[][] calls = new int[threadsNum][];
+        for (int r = 0; r < threadsNum; r++) {
+            calls[r] = new int[counts[r]];
+            counts[r] = 0;
+        }
+        for (int i = 0; i < trace.length(); i++) {
+            int r = trace.threadAt(i) % threadsNum;
+            calls[r][counts[r]++] = i;
+        }
+
+        long[][] latencies = new long[threadsNum][];
+        CountDownLatch ready = new CountDownLatch(threadsNum);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] start = new long[1];
+        // pierwszy wyjątek rzucony w wątkach odtwarzających
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[threadsNum];
+        for (int r = 0; r < threadsNum; r++) {
+            int replaying = r;
+            threads[r] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    latencies[replaying] = replay(cube, calls[replaying], speed, start[0]);
+                } catch (InterruptedException e) {
+                    latencies[replaying] = new long[0];
+                } catch (Throwable e) {
+                    latencies[replaying] = new long[0];
+                    if (!failure.compareAndSet(null, e)) {
+                        failure.get().addSuppressed(e);
+                    }
+                }
+            }, "workload-replay-" + r);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            ready.await();
+            start[0] = System.nanoTime();
+            go.countDown(); // Ustawia krawędź happens-before dla start[0].
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start[0];
+        if (failure.get() != null) {
+            throw new IllegalStateException("workload replay failed", failure.get());
+        }
+
+        long[] all = new long[trace.length()];
+        int length = 0;
+        for (long[] threadLatencies : latencies) {
+            System.arraycopy(threadLatencies, 0, all, length, threadLatencies.length);
+            length += threadLatencies.length;
+        }
+        all = Arrays.copyOf(all, length);
+        Arrays.sort(all);
+        return new WorkloadReport(elapsed, all);
+    }
+
+    // Wykonuje wywołania calls i zwraca ich opóźnienia.
+    private long[] replay(Cube cube, int[] calls, double speed, long start) throws InterruptedException {
+        long[] result = new long[calls.length];
+        for (int c = 0; c < calls.length; c++) {
+            int i = calls[c];
+            long begin;
+            if (speed == MAX_SPEED) {
+                begin = System.nanoTime();
+            }
+            else {
+                begin = start + (long) ((trace.timeAt(i) - origin) / speed);
+                long delay = begin - System.nanoTime();
+                while (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    delay = begin - System.nanoTime();
+                }
+            }
+
+            if (trace.operationAt(i) == WorkloadTrace.SHOW) {
+                cube.show();
+            }
+            else {
+                cube.rotate(trace.operationAt(i), trace.layerAt(i));
+            }
+            result[c] = System.nanoTime() - begin;
+        }
+        return result;
+    }
+
+}
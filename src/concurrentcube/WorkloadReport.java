@@ -0,0 +1,56 @@
+// author - Patryk Jędrzejczak
+
+// Wynik odtworzenia zapisu wywołań (WorkloadReplayer): liczba operacji, czas odtwarzania, przepustowość i rozkład
+// opóźnień operacji.
+
+package concurrentcube;
+
+public final class WorkloadReport {
+
+    private final long elapsedNanos;
+    // opóźnienia wszystkich operacji w nanosekundach, rosnąco
+    private final long[] latencies;
+
+    WorkloadReport(long elapsedNanos, long[] latencies) {
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+    }
+
+    public int getOperations() {
+        return latencies.length;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // operacje na sekundę
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+    }
+
+    // Opóźnienie w nanosekundach, którego nie przekroczył ułamek fraction operacji (np. 0.99), albo 0, jeśli nie było
+    // operacji.
+    public long getLatency(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1");
+        }
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * latencies.length) - 1;
+        return latencies[Math.max(0, index)];
+    }
+
+    public long getMaxLatency() {
+        return latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d operations in %.3f ms, %.0f ops/s, latency p50 %d ns, p90 %d ns, p99 %d ns, " +
+                        "p99.9 %d ns, max %d ns", getOperations(), elapsedNanos / 1e6, getThroughput(), getLatency(0.5),
+                getLatency(0.9), getLatency(0.99), getLatency(0.999), getMaxLatency());
+    }
+
+}
@@ -0,0 +1,153 @@
+// author - Patryk Jędrzejczak
+
+// Zapis ciągu wywołań rotate() i show() na kostce (WorkloadRecorder): dla każdego wywołania czas od początku
+// nagrywania w nanosekundach, numer wątku (kolejne liczby od 0 w kolejności pierwszego wywołania) oraz operacja.
+// Wywołania są uporządkowane według czasu.
+//
+// Format pliku: MAGIC, rozmiar kostki, liczba wątków i liczba wywołań (po 4 bajty), a potem dla każdego wywołania
+// przyrost czasu względem poprzedniego wywołania i numer wątku (liczby zmiennej długości, 7 bitów na bajt), bajt
+// operacji (ściana obrotu albo SHOW) i, dla obrotu, numer warstwy (liczba zmiennej długości). Typowe wywołanie zajmuje
+// więc kilka bajtów.
+
+package concurrentcube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class WorkloadTrace {
+
+    // operacja show()
+    public static final int SHOW = 6;
+    private static final int MAGIC = 0x43554257;
+
+    private final int size;
+    private final int threadsNum;
+    private final long[] times;
+    private final int[] threads;
+    private final byte[] operations;
+    private final int[] layers;
+
+    WorkloadTrace(int size, int threadsNum, long[] times, int[] threads, byte[] operations, int[] layers) {
+        this.size = size;
+        this.threadsNum = threadsNum;
+        this.times = times;
+        this.threads = threads;
+        this.operations = operations;
+        this.layers = layers;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getThreadsNum() {
+        return threadsNum;
+    }
+
+    // liczba wywołań
+    public int length() {
+        return times.length;
+    }
+
+    // czas i-tego wywołania w nanosekundach od początku nagrywania
+    public long timeAt(int i) {
+        return times[i];
+    }
+
+    public int threadAt(int i) {
+        return threads[i];
+    }
+
+    // ściana obrotu albo SHOW
+    public int operationAt(int i) {
+        return operations[i];
+    }
+
+    // warstwa obrotu, 0 dla SHOW
+    public int layerAt(int i) {
+        return layers[i];
+    }
+
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeInt(threadsNum);
+            out.writeInt(times.length);
+            long previous = 0;
+            for (int i = 0; i < times.length; i++) {
+                writeVarLong(out, times[i] - previous);
+                previous = times[i];
+                writeVarLong(out, threads[i]);
+                out.writeByte(operations[i]);
+                if (operations[i] != SHOW) {
+                    writeVarLong(out, layers[i]);
+                }
+            }
+        }
+    }
+
+    // Wczytuje zapis zapisany przez save().
+    public static WorkloadTrace load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a workload trace file");
+            }
+            int size = in.readInt();
+            int threadsNum = in.readInt();
+            int length = in.readInt();
+            if (size <= 0 || threadsNum < 0 || length < 0) {
+                throw new IOException("corrupted workload trace file");
+            }
+
+            long[] times = new long[length];
+            int[] threads = new int[length];
+            byte[] operations = new byte[length];
+            int[] layers = new int[length];
+            long time = 0;
+            for (int i = 0; i < length; i++) {
+                time += readVarLong(in);
+                times[i] = time;
+                threads[i] = (int) readVarLong(in);
+                operations[i] = in.readByte();
+                if (operations[i] != SHOW) {
+                    layers[i] = (int) readVarLong(in);
+                }
+                if (threads[i] < 0 || threads[i] >= threadsNum || operations[i] < 0 || operations[i] > SHOW ||
+                        layers[i] < 0 || layers[i] >= size) {
+                    throw new IOException("corrupted workload trace file");
+                }
+            }
+            return new WorkloadTrace(size, threadsNum, times, threads, operations, layers);
+        } catch (EOFException e) {
+            throw new IOException("truncated workload trace file", e);
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupted workload trace file");
+    }
+
+}